@@ -0,0 +1,21 @@
+/* the scalar or the vector SimKernels for the benchmarks' cos435.bench.Kernels */
+public class KernelsBridge implements cos435.bench.Kernels {
+
+    private SimKernels kernels;
+
+    public KernelsBridge(String name) {
+        if (name.equals("scalar")) kernels = new ScalarSimKernels();
+        else if (name.equals("vector") && SimKernels.KERNELS instanceof VectorSimKernels) kernels = SimKernels.KERNELS;
+        else throw new IllegalArgumentException("no " + name + " kernels (" + SimKernels.KERNELS.getName() + " selected)");
+    }
+
+    public void cosineRow(long[] dots, double magnitudeI, double[] magnitudes, int from, int length, float[] out, int outOffset) {
+        kernels.cosineRow(dots, magnitudeI, magnitudes, from, length, out, outOffset);
+    }
+    public double gatherSum(float[] values, int offset, int[] indices, int from, int to, double[] sums) {
+        return kernels.gatherSum(values, offset, indices, from, to, sums);
+    }
+    public String getName() {
+        return kernels.getName();
+    }
+}
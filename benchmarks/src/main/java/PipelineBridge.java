@@ -0,0 +1,57 @@
+import java.util.ArrayList;
+
+/* implements the benchmarks' view of the pipeline (see cos435.bench.Pipeline); it sits in the
+ * default package so it can reach Data, HAC, HDC and their package-private parts */
+public class PipelineBridge implements cos435.bench.Pipeline {
+
+    private Data d;
+    private int numThreads;
+    private HAC hac;
+    private HDC hdc;
+
+    public void load(String docwordFilename, String vocabFilename, int numThreads) {
+        this.numThreads = numThreads;
+        // packed floats, so the benchmarks time the packed kernels rather than the default double matrix
+        d = new Data(docwordFilename, vocabFilename, numThreads, SimMatrix.Storage.PACKED);
+        if (d.getSims() == null) throw new IllegalStateException("could not load " + docwordFilename);
+    }
+    public int getNumDocs() {
+        return d.getNumDocs();
+    }
+
+    public long parse(String docwordFilename) {
+        try {
+            return new CorpusParser().parseDocword(docwordFilename).getNNZ();
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+    public Object buildDocSims() {
+        d.buildDocSims();
+        return d.getSims();
+    }
+    public double getAvgSims(int[][] clusters) {
+        double sum = 0;
+        for (int[] cluster : clusters) sum += d.getAvgSim(cluster);
+        return sum;
+    }
+    public Object runHAC(int numClusters) {
+        return new HAC(d, numClusters).getPartition();
+    }
+    public Object runHDC(int numClusters, int numIterations, boolean normalize, long seed) {
+        return new HDC(d, numClusters, numIterations, normalize, seed, numThreads).getPartition();
+    }
+
+    public void prepareClusterings(int numClusters, int numIterations, long seed) {
+        hac = new HAC(d, numClusters);
+        hdc = new HDC(d, numClusters, numIterations, true, seed, numThreads);
+    }
+    public double clusteringAgreement() {
+        ArrayList<Double> agreement = d.clusteringAgreement(hac.getClusters(), hdc.getClusters());
+        return agreement.get(0) + agreement.get(1);
+    }
+    public double compareClusterings() {
+        return d.compareClusterings(hac.getPartition(), hdc.getPartition()).getAdjustedRandIndex();
+    }
+}
@@ -0,0 +1,25 @@
+package cos435.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* entry point of benchmarks.jar: JMH's own command line, except that results are written as JSON
+ * (jmh-result.json) unless another -rf is given, so runs can be compared between versions, and
+ * that the forks get the vector API module (so SimKernels can pick its vector kernels) unless
+ * -jvmArgsPrepend is given. -jvmArgsAppend stays free for e.g. -Dkernels=scalar or -XX:UseAVX=2 */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!jmhArgs.contains("-jvmArgsPrepend")) {
+            jmhArgs.add("-jvmArgsPrepend");
+            jmhArgs.add("--add-modules=jdk.incubator.vector");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
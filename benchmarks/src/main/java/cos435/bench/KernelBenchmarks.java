@@ -0,0 +1,80 @@
+package cos435.bench;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* the SimKernels inner loops on their own, scalar against vector, on one packed matrix row of a
+ * D-document corpus: cosineRow turns D dot products into similarities; gatherSum sums the row
+ * at the columns of m sorted cluster members (with and without the per-column sums that
+ * PackedSimMatrix.getRowSums also needs). The vector kernels need the module BenchmarkMain
+ * adds; compare AVX2 with AVX-512 by adding -jvmArgsAppend -XX:UseAVX=2 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KernelBenchmarks {
+
+    @Param({ "scalar", "vector" })
+    public String kernels;
+    @Param({ "1500" })
+    public int D;
+    @Param({ "30", "300", "1500" })
+    public int m;
+
+    private Kernels k;
+    private long[] dots;
+    private double[] magnitudes;
+    private float[] row;
+    private float[] values;
+    private int[] members;
+    private double[] sums;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        k = Kernels.create(kernels);
+        SplittableRandom random = new SplittableRandom(PipelineBenchmarks.SEED);
+        dots = new long[D];
+        magnitudes = new double[D];
+        for (int j = 0; j < D; j++) {
+            dots[j] = (random.nextInt(3) == 0) ? 0 : random.nextInt(100000); // about a third of pairs share no word
+            magnitudes[j] = 100 + 1000 * random.nextDouble();
+        }
+        row = new float[D];
+        values = new float[D * (D + 1) / 2];
+        for (int j = 0; j < values.length; j++) values[j] = random.nextFloat();
+        members = random.ints(0, D).distinct().limit(Math.min(m, D)).toArray();
+        Arrays.sort(members);
+        sums = new double[members.length];
+    }
+
+    @Benchmark
+    public float[] cosineRow() {
+        k.cosineRow(dots, 1234.5, magnitudes, 0, D, row, 0);
+        return row;
+    }
+    // the first member's row to the others, as in PackedSimMatrix.getSimSum
+    @Benchmark
+    public double gatherSum() {
+        return k.gatherSum(values, 0, members, 1, members.length, null);
+    }
+    @Benchmark
+    public double gatherRowSums() {
+        return k.gatherSum(values, 0, members, 1, members.length, sums);
+    }
+}
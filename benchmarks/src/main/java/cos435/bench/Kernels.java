@@ -0,0 +1,20 @@
+package cos435.bench;
+
+/* SimKernels for the kernel benchmarks, through KernelsBridge in the default package (see
+ * Pipeline for why) */
+public interface Kernels {
+
+    // "scalar" or "vector"; the vector kernels need the jdk.incubator.vector module
+    static Kernels create(String name) {
+        try {
+            return Class.forName("KernelsBridge").asSubclass(Kernels.class).getDeclaredConstructor(String.class).newInstance(name);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("no " + name + " kernels", e);
+        }
+    }
+
+    void cosineRow(long[] dots, double magnitudeI, double[] magnitudes, int from, int length, float[] out, int outOffset);
+    double gatherSum(float[] values, int offset, int[] indices, int from, int to, double[] sums);
+    String getName();
+}
@@ -0,0 +1,39 @@
+package cos435.bench;
+
+/* the clustering pipeline as the benchmarks see it. The clustering classes live in the default
+ * package, which a named package cannot import (and JMH refuses benchmarks in the default
+ * package), so PipelineBridge implements this interface on their side and the benchmarks load it
+ * by name. Calls through the interface are monomorphic, so the JIT inlines them as usual */
+public interface Pipeline {
+
+    // a new PipelineBridge
+    static Pipeline create() {
+        try {
+            return Class.forName("PipelineBridge").asSubclass(Pipeline.class).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("PipelineBridge is not on the class path", e);
+        }
+    }
+
+    // parses the corpus and builds its similarity matrix with numThreads threads
+    void load(String docwordFilename, String vocabFilename, int numThreads);
+    int getNumDocs();
+
+    // a fresh parse of the docword file; returns its NNZ
+    long parse(String docwordFilename);
+    // rebuilds the loaded corpus's similarity matrix; returns it
+    Object buildDocSims();
+    // sum of the average similarities of clusters
+    double getAvgSims(int[][] clusters);
+    // complete-link clustering of the loaded corpus into numClusters clusters
+    Object runHAC(int numClusters);
+    Object runHDC(int numClusters, int numIterations, boolean normalize, long seed);
+
+    // keeps an HAC and an HDC clustering into numClusters clusters for the agreement benchmarks
+    void prepareClusterings(int numClusters, int numIterations, long seed);
+    // Data.clusteringAgreement of the prepared clusterings (ArrayList form)
+    double clusteringAgreement();
+    // the same comparison from their Partitions
+    double compareClusterings();
+}
@@ -0,0 +1,134 @@
+package cos435.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* the pipeline's hot paths, from parsing to comparing clusterings. Parameters:
+ *   size        documents in the corpus (see SyntheticCorpus)
+ *   numThreads  threads the pipeline itself uses (similarity build and HDC split trials),
+ *               1, 2 and 4 by default so the scaling shows up in every run
+ *   k           number of clusters, over the range of the runs in output/ (capped at size)
+ *   normalize   HDC's split cost normalization
+ * e.g. java -jar benchmarks/target/benchmarks.jar runHDC -p size=1500 -p k=100 -p numThreads=4
+ * Forks run with the vector API module (see BenchmarkMain), so SimKernels uses its vector
+ * kernels; compare with the scalar ones by adding -jvmArgsAppend -Dkernels=scalar */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmarks {
+
+    public static final int NUM_ITERATIONS = 5; // HDC split trials, as in output/
+    public static final long SEED = 435;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({ "500", "1500" })
+        public int size;
+        @Param({ "1", "2", "4" })
+        public int numThreads;
+
+        SyntheticCorpus corpus;
+        Pipeline pipeline;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            corpus = new SyntheticCorpus(size);
+            pipeline = Pipeline.create();
+            pipeline.load(corpus.getDocwordFilename(), corpus.getVocabFilename(), numThreads);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Clusters {
+        @Param({ "5", "10", "50", "100", "500", "1000" })
+        public int k;
+
+        int numClusters;
+        int[][] randomClusters; // the documents dealt at random into numClusters clusters
+
+        @Setup(Level.Trial)
+        public void setUp(Corpus corpus) {
+            int N = corpus.pipeline.getNumDocs();
+            numClusters = Math.min(k, N);
+            SplittableRandom random = new SplittableRandom(SEED);
+            int[] order = new int[N];
+            for (int i = 0; i < N; i++) order[i] = i;
+            for (int i = N - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+            randomClusters = new int[numClusters][];
+            for (int c = 0; c < numClusters; c++) {
+                int from = (int) ((long) N * c / numClusters);
+                int to = (int) ((long) N * (c + 1) / numClusters);
+                randomClusters[c] = new int[to - from];
+                for (int x = from; x < to; x++) randomClusters[c][x - from] = order[x];
+                Arrays.sort(randomClusters[c]);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Split {
+        @Param({ "true", "false" })
+        public boolean normalize;
+    }
+
+    // an HAC and an HDC clustering of the corpus to compare
+    @State(Scope.Benchmark)
+    public static class Clusterings {
+        @Setup(Level.Trial)
+        public void setUp(Corpus corpus, Clusters clusters) {
+            corpus.pipeline.prepareClusterings(clusters.numClusters, NUM_ITERATIONS, SEED);
+        }
+    }
+
+    @Benchmark
+    public long parse(Corpus corpus) {
+        return corpus.pipeline.parse(corpus.corpus.getDocwordFilename());
+    }
+    @Benchmark
+    public Object buildDocSims(Corpus corpus) {
+        return corpus.pipeline.buildDocSims();
+    }
+    // getAvgSim of every cluster of a random clustering, i.e. every within-cluster pair once
+    @Benchmark
+    public double getAvgSim(Corpus corpus, Clusters clusters) {
+        return corpus.pipeline.getAvgSims(clusters.randomClusters);
+    }
+    @Benchmark
+    public Object runHAC(Corpus corpus, Clusters clusters) {
+        return corpus.pipeline.runHAC(clusters.numClusters);
+    }
+    @Benchmark
+    public Object runHDC(Corpus corpus, Clusters clusters, Split split) {
+        return corpus.pipeline.runHDC(clusters.numClusters, NUM_ITERATIONS, split.normalize, SEED);
+    }
+    @Benchmark
+    public double clusteringAgreement(Corpus corpus, Clusterings clusterings) {
+        return corpus.pipeline.clusteringAgreement();
+    }
+    @Benchmark
+    public double compareClusterings(Corpus corpus, Clusterings clusterings) {
+        return corpus.pipeline.compareClusterings();
+    }
+}
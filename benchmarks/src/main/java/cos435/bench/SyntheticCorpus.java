@@ -0,0 +1,161 @@
+package cos435.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/* corpora of a given size for the benchmarks. If the NIPS docword file is available (system
+ * property nips.docword, by default docword.nips.txt in the working directory), its first size
+ * documents are used; otherwise a synthetic corpus of NIPS's shape is generated: a W = 12419
+ * word vocabulary, about 1270 tokens and 500 distinct words per document, Zipf-distributed word
+ * frequencies and a few dozen topics so that the clusterings have structure to find. Both are
+ * deterministic, so every fork and every version benchmarks the same documents */
+public class SyntheticCorpus {
+
+    public static final int NIPS_DOCS = 1500;
+    public static final int NIPS_WORDS = 12419;
+    private static final int TOKENS_PER_DOC = 1270;
+    private static final int NUM_TOPICS = 40;
+    private static final double TOPIC_SHARE = 0.4; // fraction of a document's tokens drawn from its topic
+    private static final int TOPIC_WORDS = 600; // words per topic
+    private static final long SEED = 435;
+
+    private File docword;
+    private File vocab;
+
+    // writes the corpus to temporary files that are deleted on exit
+    public SyntheticCorpus(int size) throws IOException {
+        if (size <= 0) throw new IllegalArgumentException("corpus size " + size + " must be positive");
+        docword = File.createTempFile("docword." + size + ".", ".txt");
+        docword.deleteOnExit();
+        vocab = File.createTempFile("vocab." + size + ".", ".txt");
+        vocab.deleteOnExit();
+        File nips = new File(System.getProperty("nips.docword", "docword.nips.txt"));
+        int W = nips.isFile() ? writeNipsSubset(nips, size) : writeSynthetic(size);
+        writeVocab(W);
+    }
+
+    public String getDocwordFilename() {
+        return docword.getPath();
+    }
+    public String getVocabFilename() {
+        return vocab.getPath();
+    }
+
+    // first size documents of nips (all of them if it has fewer); returns W
+    private int writeNipsSubset(File nips, int size) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(nips));
+        StringBuilder triplets = new StringBuilder();
+        int D;
+        int W;
+        long NNZ = 0;
+        try {
+            D = Integer.parseInt(in.readLine().trim());
+            W = Integer.parseInt(in.readLine().trim());
+            in.readLine();
+            D = Math.min(D, size);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                int docID = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+                if (docID > D) continue;
+                triplets.append(line).append('\n');
+                NNZ++;
+            }
+        }
+        finally {
+            in.close();
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(docword)));
+        try {
+            out.print(D + "\n" + W + "\n" + NNZ + "\n");
+            out.print(triplets);
+        }
+        finally {
+            out.close();
+        }
+        return W;
+    }
+    // size documents of NIPS's shape; returns W
+    private int writeSynthetic(int size) throws IOException {
+        int W = NIPS_WORDS;
+        SplittableRandom random = new SplittableRandom(SEED);
+        double[] background = zipfCdf(W);
+        double[] topic = zipfCdf(TOPIC_WORDS);
+        int[] wordOrder = permutation(W, random); // background rank -> word
+        int[] counts = new int[W];
+        int[] touched = new int[W];
+        StringBuilder triplets = new StringBuilder();
+        long NNZ = 0;
+        for (int i = 0; i < size; i++) {
+            int t = random.nextInt(NUM_TOPICS);
+            int length = TOKENS_PER_DOC / 2 + random.nextInt(TOKENS_PER_DOC);
+            int numTouched = 0;
+            for (int n = 0; n < length; n++) {
+                int word;
+                // a topic's words are a contiguous run of the background order, starting at a topic-specific rank
+                if (random.nextDouble() < TOPIC_SHARE) word = wordOrder[(t * (W / NUM_TOPICS) + sample(topic, random)) % W];
+                else word = wordOrder[sample(background, random)];
+                if (counts[word]++ == 0) touched[numTouched++] = word;
+            }
+            Arrays.sort(touched, 0, numTouched);
+            for (int n = 0; n < numTouched; n++) {
+                triplets.append(i + 1).append(' ').append(touched[n] + 1).append(' ').append(counts[touched[n]]).append('\n');
+                counts[touched[n]] = 0;
+            }
+            NNZ += numTouched;
+        }
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(docword)));
+        try {
+            out.print(size + "\n" + W + "\n" + NNZ + "\n");
+            out.print(triplets);
+        }
+        finally {
+            out.close();
+        }
+        return W;
+    }
+    private void writeVocab(int W) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(vocab)));
+        try {
+            for (int w = 0; w < W; w++) out.print("word" + (w + 1) + "\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // cumulative distribution of Zipf's law (exponent 1) over n ranks
+    private static double[] zipfCdf(int n) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int r = 0; r < n; r++) {
+            sum += 1.0 / (r + 1);
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < n; r++) cdf[r] /= sum;
+        return cdf;
+    }
+    private static int sample(double[] cdf, SplittableRandom random) {
+        int r = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min((r >= 0) ? r : -r - 1, cdf.length - 1);
+    }
+    private static int[] permutation(int n, SplittableRandom random) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int k = order[i];
+            order[i] = order[j];
+            order[j] = k;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/* the contingency-table measures against known values and against counting document pairs */
+class ClusteringComparisonTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    @Test
+    void identicalLabelings() {
+        int[] labels = { 0, 0, 0, 1, 1, 2, 2, 2, 2, 3 };
+        ClusteringComparison comparison = compare(labels, labels);
+        assertEquals(1, comparison.getRandIndex(), TOLERANCE);
+        assertEquals(1, comparison.getAdjustedRandIndex(), TOLERANCE);
+        assertEquals(1, comparison.getNormalizedMutualInformation(), TOLERANCE);
+        assertEquals((9 + 4 + 16 + 1) / 100.0, comparison.getPositiveAgreement(), TOLERANCE);
+        assertEquals(1 - (9 + 4 + 16 + 1) / 100.0, comparison.getNegativeAgreement(), TOLERANCE);
+    }
+    @Test
+    void permutedLabelsAreTheSameClustering() {
+        int[] labels = { 0, 0, 0, 1, 1, 2, 2, 2, 2, 3 };
+        int[] permuted = { 2, 2, 2, 3, 3, 0, 0, 0, 0, 1 };
+        ClusteringComparison comparison = compare(labels, permuted);
+        assertEquals(1, comparison.getRandIndex(), TOLERANCE);
+        assertEquals(1, comparison.getAdjustedRandIndex(), TOLERANCE);
+        assertEquals(1, comparison.getNormalizedMutualInformation(), TOLERANCE);
+        assertEquals(1, comparison.getPositiveAgreement() + comparison.getNegativeAgreement(), TOLERANCE);
+    }
+    @Test
+    void disjointLabelings() {
+        // no pair is together in both: every cell of the 2 x 2 table holds one document
+        ClusteringComparison comparison = compare(new int[] { 0, 0, 1, 1 }, new int[] { 0, 1, 0, 1 });
+        assertEquals(2 / 6.0, comparison.getRandIndex(), TOLERANCE); // the two pairs split in both, of 6
+        assertEquals(-0.5, comparison.getAdjustedRandIndex(), TOLERANCE); // (0 - 2/3) / (2 - 2/3)
+        assertEquals(0, comparison.getNormalizedMutualInformation(), TOLERANCE);
+        assertEquals(4 / 16.0, comparison.getPositiveAgreement(), TOLERANCE); // the self-pairs
+        assertEquals((16 - 8 - 8 + 4) / 16.0, comparison.getNegativeAgreement(), TOLERANCE);
+        // singletons against one cluster: Rand and ARI 0, and NMI 0 as one entropy is 0
+        comparison = compare(new int[] { 0, 1, 2, 3, 4 }, new int[] { 0, 0, 0, 0, 0 });
+        assertEquals(0, comparison.getRandIndex(), TOLERANCE);
+        assertEquals(0, comparison.getAdjustedRandIndex(), TOLERANCE);
+        assertEquals(0, comparison.getNormalizedMutualInformation(), TOLERANCE);
+    }
+    @Test
+    void handComputedTable() {
+        // A = {0..4}, B = {5..9} against X = {0, 1, 2, 5}, Y = {3, 4, 6, 7, 8, 9}:
+        //        X  Y
+        //   A    3  2  | 5
+        //   B    1  4  | 5
+        //        4  6  | 10
+        // cell pairs 3 + 1 + 0 + 6 = 10, row pairs 10 + 10 = 20, column pairs 6 + 15 = 21, of 45
+        int[] one = { 0, 0, 0, 0, 0, 1, 1, 1, 1, 1 };
+        int[] two = { 0, 0, 0, 1, 1, 0, 1, 1, 1, 1 };
+        ClusteringComparison comparison = compare(one, two);
+        assertEquals((45 + 2 * 10 - 20 - 21) / 45.0, comparison.getRandIndex(), TOLERANCE); // 24/45
+        double expected = 20 * 21 / 45.0;
+        assertEquals((10 - expected) / ((20 + 21) / 2.0 - expected), comparison.getAdjustedRandIndex(), TOLERANCE); // 4/67
+        assertEquals(4 / 67.0, comparison.getAdjustedRandIndex(), TOLERANCE);
+        double mutualInformation = 0.3 * Math.log(3 * 10 / (5.0 * 4)) + 0.2 * Math.log(2 * 10 / (5.0 * 6)) +
+                                   0.1 * Math.log(1 * 10 / (5.0 * 4)) + 0.4 * Math.log(4 * 10 / (5.0 * 6));
+        double entropyOne = Math.log(2);
+        double entropyTwo = -(0.4 * Math.log(0.4) + 0.6 * Math.log(0.6));
+        assertEquals(mutualInformation / Math.sqrt(entropyOne * entropyTwo), comparison.getNormalizedMutualInformation(), TOLERANCE);
+        assertEquals(0.12636, comparison.getNormalizedMutualInformation(), 1e-5);
+        assertEquals((9 + 4 + 1 + 16) / 100.0, comparison.getPositiveAgreement(), TOLERANCE);
+        assertEquals((100 - 50 - 52 + 30) / 100.0, comparison.getNegativeAgreement(), TOLERANCE);
+    }
+    @Test
+    void clusterListsMatchPartitions() {
+        // documents missing from the lists form one extra cluster, as unlabelled ones do in a Partition
+        int[] one = { 0, 1, -1, 1, 0, 2, -1, 2 };
+        int[] two = { 1, 1, 0, 0, -1, 0, 1, 1 };
+        ClusteringComparison fromLists = new ClusteringComparison(one.length, toClusters(one, 3), toClusters(two, 2));
+        ClusteringComparison fromPartitions = new ClusteringComparison(Partition.fromLabels(one, 3), Partition.fromLabels(two, 2));
+        assertEquals(fromPartitions.getRandIndex(), fromLists.getRandIndex(), TOLERANCE);
+        assertEquals(fromPartitions.getAdjustedRandIndex(), fromLists.getAdjustedRandIndex(), TOLERANCE);
+        assertEquals(fromPartitions.getNormalizedMutualInformation(), fromLists.getNormalizedMutualInformation(), TOLERANCE);
+        assertEquals(fromPartitions.getPositiveAgreement(), fromLists.getPositiveAgreement(), TOLERANCE);
+    }
+    @Test
+    void matchesPairCountingOnBothTableLayouts() {
+        Random random = new Random(435);
+        // few clusters use the dense table, thousands of them the sorted keys
+        for (int k : new int[] { 5, 2500 }) {
+            int D = 3000;
+            int[] one = new int[D];
+            int[] two = new int[D];
+            for (int i = 0; i < D; i++) {
+                one[i] = random.nextInt(k);
+                two[i] = (random.nextInt(4) == 0) ? random.nextInt(k) : one[i]; // mostly agreeing
+            }
+            long together = 0; // unordered pairs of distinct documents together in both
+            long apart = 0;
+            for (int i = 0; i < D; i++) {
+                for (int j = i + 1; j < D; j++) {
+                    boolean sameOne = one[i] == one[j];
+                    boolean sameTwo = two[i] == two[j];
+                    if (sameOne && sameTwo) together++;
+                    else if (!sameOne && !sameTwo) apart++;
+                }
+            }
+            ClusteringComparison comparison = compare(one, two);
+            assertEquals((together + apart) / (D * (D - 1) / 2.0), comparison.getRandIndex(), TOLERANCE, "k = " + k);
+            assertEquals((2 * together + D) / ((double) D * D), comparison.getPositiveAgreement(), TOLERANCE, "k = " + k);
+            assertEquals(2 * apart / ((double) D * D), comparison.getNegativeAgreement(), TOLERANCE, "k = " + k);
+        }
+    }
+
+    private static ClusteringComparison compare(int[] one, int[] two) {
+        return new ClusteringComparison(Partition.fromLabels(one, max(one) + 1), Partition.fromLabels(two, max(two) + 1));
+    }
+    private static int max(int[] labels) {
+        int max = 0;
+        for (int label : labels) max = Math.max(max, label);
+        return max;
+    }
+    private static ArrayList<ArrayList<Integer>> toClusters(int[] labels, int k) {
+        ArrayList<ArrayList<Integer>> clusters = new ArrayList<ArrayList<Integer>>();
+        for (int c = 0; c < k; c++) clusters.add(new ArrayList<Integer>());
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] >= 0) clusters.get(labels[i]).add(i);
+        }
+        return clusters;
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* the byte-level docword and vocab parser on well-formed, malformed and oddly laid out files */
+class CorpusParserTest {
+
+    private static final String DOCWORD = "3\n5\n6\n1 1 2\n1 4 1\n2 2 3\n2 5 1\n3 1 1\n3 3 4\n";
+
+    @TempDir
+    File dir;
+
+    @Test
+    void parsesTriplets() throws IOException {
+        SparseDocs docs = parse(DOCWORD);
+        assertEquals(3, docs.getNumDocs());
+        assertEquals(5, docs.getNumWords());
+        assertEquals(6, docs.getNNZ());
+        assertArrayEquals(new int[] { 0, 2, 4, 6 }, docs.getRowOffsets());
+        assertArrayEquals(new int[] { 0, 3, 1, 4, 0, 2 }, docs.getWordIDs());
+        assertArrayEquals(new int[] { 2, 1, 3, 1, 1, 4 }, docs.getCounts());
+    }
+    @Test
+    void layoutDoesNotMatter() throws IOException {
+        SparseDocs expected = parse(DOCWORD);
+        // CRLF line ends, tabs and runs of blanks, no final newline, and the triplets out of docID order
+        assertSameDocs(expected, parse(DOCWORD.replace("\n", "\r\n")));
+        assertSameDocs(expected, parse("3 5\t6\n1  1 2\n1 4\t1\n\n2 2 3\n2 5 1\n3 1 1\n3 3 4"));
+        assertSameDocs(expected, parse("3\n5\n6\n3 3 4\n2 2 3\n1 4 1\n1 1 2\n3 1 1\n2 5 1\n"));
+        // a header NNZ that undercounts the triplets
+        assertSameDocs(expected, parse(DOCWORD.replace("\n6\n", "\n2\n")));
+    }
+    @Test
+    void gzipMatchesPlain() throws IOException {
+        File file = new File(dir, "docword.txt.gz");
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            out.write(DOCWORD.getBytes(StandardCharsets.US_ASCII));
+        }
+        finally {
+            out.close();
+        }
+        assertSameDocs(parse(DOCWORD), new CorpusParser().parseDocword(file.getPath()));
+    }
+    @Test
+    void rejectsMalformedHeaders() {
+        assertThrows(IOException.class, () -> parse(""));
+        assertThrows(IOException.class, () -> parse("3\n5\n"));
+        assertThrows(IOException.class, () -> parse("3\nfive\n6\n"));
+        assertThrows(IOException.class, () -> parse("-3\n5\n6\n"));
+        assertThrows(IOException.class, () -> parse("3.0\n5\n6\n"));
+    }
+    @Test
+    void rejectsTruncatedLines() {
+        assertThrows(IOException.class, () -> parse("3\n5\n6\n1 1 2\n1 4"));
+        assertThrows(IOException.class, () -> parse("3\n5\n6\n1 1 2\n1\n"));
+    }
+    @Test
+    void rejectsOutOfRangeIDs() {
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n0 1 1\n")); // IDs start at 1
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n4 1 1\n"));
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n1 0 1\n"));
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n1 6 1\n"));
+    }
+    @Test
+    void rejectsNumbersTooLargeInsteadOfWrapping() throws IOException {
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n1 1 2147483648\n"));
+        // 2^64 + 1, which would wrap around a long to 1
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n18446744073709551617 1 1\n"));
+        assertThrows(IOException.class, () -> parse("3\n5\n1\n1 1 " + "9".repeat(40) + "\n"));
+        assertThrows(IOException.class, () -> parse("18446744073709551619\n5\n1\n1 1 1\n"));
+        assertEquals(Integer.MAX_VALUE, parse("3\n5\n1\n1 1 2147483647\n").getCounts()[0]);
+    }
+    @Test
+    void blocksMatchWholeParse() throws IOException {
+        SparseDocs expected = parse(DOCWORD);
+        final ArrayList<int[]> rows = new ArrayList<int[]>();
+        new CorpusParser().parseDocwordBlocks(write(DOCWORD.replace("\n", "\r\n")), 2, new CorpusParser.DocBlockHandler() {
+            public void header(int D, int W, long NNZ) {
+                assertEquals(3, D);
+                assertEquals(5, W);
+                assertEquals(6, NNZ);
+            }
+            public void block(int firstDoc, SparseDocs docs) {
+                assertEquals(rows.size(), firstDoc);
+                for (int i = 0; i < docs.getNumDocs(); i++) {
+                    int[] row = new int[docs.rowLength(i)];
+                    for (int k = 0; k < row.length; k++) row[k] = docs.getWordIDs()[docs.rowStart(i) + k];
+                    rows.add(row);
+                }
+            }
+        });
+        assertEquals(3, rows.size());
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < rows.get(i).length; k++) assertEquals(expected.getWordIDs()[expected.rowStart(i) + k], rows.get(i)[k]);
+        }
+        // block streaming needs the triplets in docID order
+        CorpusParser.DocBlockHandler ignore = new CorpusParser.DocBlockHandler() {
+            public void header(int D, int W, long NNZ) {
+            }
+            public void block(int firstDoc, SparseDocs docs) {
+            }
+        };
+        assertThrows(IOException.class, () -> new CorpusParser().parseDocwordBlocks(write("3\n5\n2\n2 1 1\n1 1 1\n"), 2, ignore));
+    }
+    @Test
+    void parsesVocabLines() throws IOException {
+        String[] vocab = new CorpusParser().parseVocab(write("alpha\r\nbeta\ngamma"), 4);
+        assertArrayEquals(new String[] { "alpha", "beta", "gamma", null }, vocab);
+        assertArrayEquals(new String[] { "alpha" }, new CorpusParser().parseVocab(write("alpha\nbeta\n"), 1));
+    }
+
+    private SparseDocs parse(String contents) throws IOException {
+        return new CorpusParser().parseDocword(write(contents));
+    }
+    private String write(String contents) throws IOException {
+        File file = File.createTempFile("docword", ".txt", dir);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file.getPath();
+    }
+    private static void assertSameDocs(SparseDocs expected, SparseDocs actual) {
+        assertEquals(expected.getNumDocs(), actual.getNumDocs());
+        assertEquals(expected.getNumWords(), actual.getNumWords());
+        assertArrayEquals(expected.getRowOffsets(), actual.getRowOffsets());
+        assertTrue(expected.getNNZ() <= actual.getWordIDs().length);
+        for (int k = 0; k < expected.getNNZ(); k++) {
+            assertEquals(expected.getWordIDs()[k], actual.getWordIDs()[k], "word of nonzero " + k);
+            assertEquals(expected.getCounts()[k], actual.getCounts()[k], "count of nonzero " + k);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/* Data's defaults, its storage choices and its snapshots */
+class DataTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void defaultStorageIsDense() {
+        Data d = new Data(TestCorpus.path(TestCorpus.DOCWORD), TestCorpus.path(TestCorpus.VOCAB));
+        assertTrue(d.getSims() instanceof DenseSimMatrix, d.getSims().getClass().getName());
+        assertTrue(new Data(TestCorpus.path(TestCorpus.DOCWORD), TestCorpus.path(TestCorpus.VOCAB), 2).getSims() instanceof DenseSimMatrix);
+        // the float storages hold the same similarities, rounded
+        SimMatrix packed = TestCorpus.load(SimMatrix.Storage.PACKED).getSims();
+        for (int i = 0; i < packed.size(); i++) {
+            for (int j = 0; j < packed.size(); j++) assertEquals((float) d.getSims().get(i, j), packed.get(i, j));
+        }
+    }
+    @Test
+    void snapshotLoadsIntoTheRequestedStorage() throws IOException {
+        String docword = copy(TestCorpus.DOCWORD);
+        String vocab = copy(TestCorpus.VOCAB);
+        String snapshot = new File(dir, "small.snapshot").getPath();
+        SimMatrix expected = TestCorpus.load(SimMatrix.Storage.PACKED).getSims();
+        assertFalse(new Data(docword, vocab, 1, SimMatrix.Storage.PACKED, snapshot).isLoadedFromSnapshot());
+        Object[][] storages = { { SimMatrix.Storage.PACKED, PackedSimMatrix.class }, { SimMatrix.Storage.DIRECT, MappedSimMatrix.class },
+                                { SimMatrix.Storage.MAPPED, MappedSimMatrix.class }, { SimMatrix.Storage.TILED, TiledSimMatrix.class },
+                                { SimMatrix.Storage.DENSE, DenseSimMatrix.class } };
+        for (Object[] storage : storages) {
+            Data d = new Data(docword, vocab, 1, (SimMatrix.Storage) storage[0], snapshot);
+            assertTrue(d.isLoadedFromSnapshot(), storage[0].toString());
+            assertEquals(storage[1], d.getSims().getClass(), storage[0].toString());
+            for (int i = 0; i < expected.size(); i++) {
+                for (int j = 0; j < expected.size(); j++) assertEquals((float) expected.get(i, j), (float) d.getSims().get(i, j), storage[0] + " " + i + " " + j);
+            }
+        }
+        // a source file that changed since the snapshot makes it stale; the rebuild writes a new one
+        new File(docword).setLastModified(new File(docword).lastModified() - 60000);
+        assertFalse(new Data(docword, vocab, 1, SimMatrix.Storage.PACKED, snapshot).isLoadedFromSnapshot());
+        assertTrue(new Data(docword, vocab, 1, SimMatrix.Storage.PACKED, snapshot).isLoadedFromSnapshot());
+    }
+    @Test
+    void outOfCoreMatchesInMemory() {
+        SimMatrix expected = TestCorpus.load(SimMatrix.Storage.PACKED).getSims();
+        Data d = new Data(TestCorpus.path(TestCorpus.DOCWORD), TestCorpus.path(TestCorpus.VOCAB), 1L << 20, null);
+        assertEquals(expected.size(), d.getNumDocs());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int j = 0; j < expected.size(); j++) assertEquals(expected.get(i, j), d.getSims().get(i, j), i + " " + j);
+        }
+    }
+    @Test
+    void outOfCoreFailuresPropagate() throws IOException {
+        // the block streaming needs the triplets in docID order
+        File unsorted = new File(dir, "docword.unsorted.txt");
+        Files.write(unsorted.toPath(), "3\n5\n2\n2 1 1\n1 1 1\n".getBytes(StandardCharsets.US_ASCII));
+        String vocab = TestCorpus.path(TestCorpus.VOCAB);
+        assertThrows(UncheckedIOException.class, () -> new Data(unsorted.getPath(), vocab, 1L << 20, null));
+        assertThrows(UncheckedIOException.class, () -> new Data(new File(dir, "missing.txt").getPath(), vocab, 1L << 20, null));
+    }
+
+    private String copy(String resource) throws IOException {
+        File file = new File(dir, resource);
+        Files.copy(new File(TestCorpus.path(resource)).toPath(), file.toPath());
+        return file.getPath();
+    }
+}
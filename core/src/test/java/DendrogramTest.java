@@ -0,0 +1,25 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/* cuts of one full-hierarchy HAC run against HAC run afresh to each k */
+class DendrogramTest {
+
+    @ParameterizedTest
+    @EnumSource(value = SimMatrix.Storage.class, names = { "DENSE", "PACKED" })
+    void cutMatchesFreshHAC(SimMatrix.Storage storage) {
+        Data d = TestCorpus.load(storage);
+        HAC hierarchy = new HAC(d, 1, true);
+        Dendrogram dendrogram = hierarchy.getDendrogram();
+        assertEquals(d.getNumDocs() - 1, dendrogram.getNumMerges());
+        for (int k = 1; k <= d.getNumDocs(); k++) {
+            HAC fresh = new HAC(d, k);
+            assertEquals(fresh.getClusters(), dendrogram.cut(k), "cut, k = " + k);
+            assertEquals(fresh.getClusters(), dendrogram.cutPartition(k).toClusters(), "cutPartition, k = " + k);
+            HAC cut = new HAC(hierarchy, k);
+            assertEquals(fresh.getClusters(), cut.getClusters(), "HAC cut, k = " + k);
+            assertEquals(fresh.getAvgClusterSims(), cut.getAvgClusterSims(), "average similarities, k = " + k);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/* HAC on the priority-queue CompleteLinkEngine against the original O(N^3) full-matrix scan it
+ * replaced: same merges in the same order, same reported similarities (but for the scan's -1 on
+ * merging clusters 0 and 1), same clusters */
+class HACTest {
+
+    @ParameterizedTest
+    @EnumSource(value = SimMatrix.Storage.class, names = { "DENSE", "PACKED" })
+    void mergesMatchFullScan(SimMatrix.Storage storage) {
+        Data d = TestCorpus.load(storage);
+        for (int k : new int[] { 1, 2, 4, 10, 30, d.getNumDocs() }) {
+            HAC hac = new HAC(d, k);
+            FullScanHAC reference = new FullScanHAC(d.getSims(), k);
+            assertEquals(reference.merges, hac.getMerges(), "merges, k = " + k);
+            assertEquals(reference.reportedSims(hac.getMergeSims()), hac.getMergeSims(), "merge similarities, k = " + k);
+            assertEquals(reference.clusters, hac.getClusters(), "clusters, k = " + k);
+        }
+    }
+
+    // the baseline HAC, unchanged but for reading the document similarities through a SimMatrix
+    private static class FullScanHAC {
+        private int N;
+        private SimMatrix docSims;
+        private double[][] clusterSims;
+        private ArrayList<ArrayList<Integer>> clusters;
+        private ArrayList<ArrayList<Integer>> merges = new ArrayList<ArrayList<Integer>>();
+        private ArrayList<Double> mergeSims = new ArrayList<Double>();
+
+        FullScanHAC(SimMatrix docSims, int numClusters) {
+            this.docSims = docSims;
+            N = docSims.size();
+            clusterSims = new double[N][N];
+            clusters = new ArrayList<ArrayList<Integer>>(N);
+            for (int i = 0; i < N; i++) {
+                clusters.add(new ArrayList<Integer>());
+                clusters.get(i).add(i);
+                for (int j = 0; j < N; j++) clusterSims[i][j] = docSims.get(i, j);
+            }
+            for (int left = N; left > numClusters; left--) {
+                ArrayList<Integer> indices = identifyMerge();
+                ArrayList<Integer> to = clusters.get(indices.get(0));
+                ArrayList<Integer> from = clusters.get(indices.get(1));
+                while (from.size() > 0) to.add(from.remove(0));
+                merges.add(indices);
+                updateSims(indices);
+            }
+            ArrayList<ArrayList<Integer>> nonEmptyClusters = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> cluster : clusters) {
+                if (cluster.size() > 0) {
+                    Collections.sort(cluster);
+                    nonEmptyClusters.add(cluster);
+                }
+            }
+            clusters = nonEmptyClusters;
+        }
+        // the scan's similarities with its one known deviation put back: it started from the pair (0, 1)
+        // and only recorded a similarity when another pair beat it, so a merge of clusters 0 and 1 was
+        // reported as -1; the engine reports that merge's similarity like any other's
+        ArrayList<Double> reportedSims(ArrayList<Double> hacSims) {
+            ArrayList<Double> sims = new ArrayList<Double>(mergeSims);
+            for (int m = 0; m < sims.size(); m++) {
+                if (merges.get(m).get(0) == 0 && merges.get(m).get(1) == 1) {
+                    assertEquals(-1.0, sims.get(m), "merge " + m + " of clusters 0 and 1");
+                    sims.set(m, hacSims.get(m));
+                }
+            }
+            return sims;
+        }
+        private ArrayList<Integer> identifyMerge() {
+            int iLargestSim = 0;
+            int jLargestSim = 1;
+            double largestSim = -1;
+            for (int i = 0; i < N; i++) {
+                for (int j = 0; j < N; j++) {
+                    if (i == j) continue;
+                    if (clusterSims[i][j] > clusterSims[iLargestSim][jLargestSim]) {
+                        iLargestSim = i;
+                        jLargestSim = j;
+                        largestSim = clusterSims[i][j];
+                    }
+                }
+            }
+            ArrayList<Integer> indices = new ArrayList<Integer>(2);
+            indices.add(iLargestSim);
+            indices.add(jLargestSim);
+            mergeSims.add(largestSim);
+            return indices;
+        }
+        private void updateSims(ArrayList<Integer> indices) {
+            int toIndex = indices.get(0);
+            int fromIndex = indices.get(1);
+            for (int i = 0; i < N; i++) {
+                if (i == fromIndex) continue;
+                clusterSims[i][fromIndex] = -1;
+                clusterSims[fromIndex][i] = -1;
+            }
+            for (int i = 0; i < N; i++) {
+                if (i == toIndex) continue;
+                double smallestSim = 1;
+                for (int docJ : clusters.get(toIndex)) {
+                    for (int docK : clusters.get(i)) {
+                        if (docSims.get(docJ, docK) < smallestSim) smallestSim = docSims.get(docJ, docK);
+                    }
+                }
+                if (smallestSim == 1) smallestSim = -1;
+                clusterSims[i][toIndex] = smallestSim;
+                clusterSims[toIndex][i] = smallestSim;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/* HDC depends on its seed only: the split trials draw from per-trial streams, so the clustering
+ * is the same whether they run in this thread or on a pool */
+class HDCTest {
+
+    private static final long SEED = 435;
+
+    @ParameterizedTest
+    @EnumSource(value = SimMatrix.Storage.class, names = { "DENSE", "PACKED" })
+    void sameClusteringOnOneAndManyThreads(SimMatrix.Storage storage) {
+        Data d = TestCorpus.load(storage);
+        for (int k : new int[] { 2, 5, 12 }) {
+            for (boolean normalize : new boolean[] { true, false }) {
+                HDC serial = new HDC(d, k, 5, normalize, SEED, 1);
+                for (int numThreads : new int[] { 2, 4 }) {
+                    HDC parallel = new HDC(d, k, 5, normalize, SEED, numThreads);
+                    String config = "k = " + k + ", normalize = " + normalize + ", " + numThreads + " threads";
+                    assertEquals(serial.getClusters(), parallel.getClusters(), config);
+                    assertEquals(serial.getAvgClusterSims(), parallel.getAvgClusterSims(), config);
+                }
+                assertEquals(serial.getClusters(), new HDC(d, k, 5, normalize, SEED, 1).getClusters(), "rerun, k = " + k);
+            }
+        }
+    }
+    @ParameterizedTest
+    @EnumSource(value = SimMatrix.Storage.class, names = { "DENSE", "PACKED" })
+    void parallelBuildMatchesSerial(SimMatrix.Storage storage) {
+        SimMatrix serial = TestCorpus.load(1, storage).getSims();
+        SimMatrix parallel = TestCorpus.load(4, storage).getSims();
+        for (int i = 0; i < serial.size(); i++) {
+            for (int j = 0; j < serial.size(); j++) assertEquals(serial.get(i, j), parallel.get(i, j), "sim(" + i + ", " + j + ")");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/* phase bookkeeping, and peak heap that other instances' phases leave alone */
+class MetricsTest {
+
+    @Test
+    void phasesAddUp() {
+        Metrics metrics = new Metrics();
+        for (int r = 0; r < 3; r++) metrics.startPhase("phase").stop();
+        Metrics.Timer timer = metrics.startPhase("phase");
+        timer.stop();
+        timer.stop(); // a second stop is ignored
+        assertTrue(metrics.getWallNanos("phase") > 0);
+        assertTrue(metrics.toJson().contains("\"phase\": { \"count\": 4,"), metrics.toJson());
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, 5);
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, 7);
+        assertEquals(12, metrics.getCount(Metrics.Counter.SIM_LOOKUPS));
+        assertEquals(0, metrics.getWallNanos("missing"));
+    }
+    @Test
+    void peakHeapSurvivesOtherInstances() throws InterruptedException {
+        int bytes = 64 << 20;
+        Metrics one = new Metrics();
+        Metrics two = new Metrics();
+        Metrics.Timer timer = one.startPhase("allocate");
+        byte[] block = new byte[bytes];
+        block[bytes - 1] = 1;
+        Thread.sleep(200); // several sampling intervals
+        block = null;
+        System.gc();
+        two.startPhase("other").stop(); // used to reset the JVM's peak for every instance, losing the block
+        timer.stop();
+        assertTrue(one.getPeakHeap("allocate") >= bytes, one.getPeakHeap("allocate") + " bytes");
+    }
+}
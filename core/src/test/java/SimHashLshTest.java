@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/* LSH candidates against the buckets of the signatures, with and without sampling large buckets */
+class SimHashLshTest {
+
+    private static final int BITS = 3; // one band of 3 bits: 8 buckets for 45 documents, some large
+
+    @Test
+    void smallBucketsPairEveryone() {
+        SparseDocs docs = TestCorpus.load(SimMatrix.Storage.PACKED).getDocs();
+        SimHashLsh lsh = new SimHashLsh(docs, BITS, 1, SimHashLsh.DEFAULT_SEED, docs.getNumDocs());
+        int[] buckets = buckets(lsh, docs);
+        int expected = 0;
+        for (int i = 0; i < docs.getNumDocs(); i++) {
+            for (int j = i + 1; j < docs.getNumDocs(); j++) {
+                boolean together = buckets[i] >= 0 && buckets[i] == buckets[j];
+                assertEquals(together, lsh.isCandidate(i, j), i + " " + j);
+                if (together) expected++;
+            }
+        }
+        assertEquals(expected, lsh.getNumCandidates());
+    }
+    @Test
+    void largeBucketsAreSampled() {
+        SparseDocs docs = TestCorpus.load(SimMatrix.Storage.PACKED).getDocs();
+        int maxBucketSize = 4;
+        SimHashLsh lsh = new SimHashLsh(docs, BITS, 1, SimHashLsh.DEFAULT_SEED, maxBucketSize);
+        int[] buckets = buckets(lsh, docs);
+        int[] bucketSizes = new int[1 << BITS];
+        for (int bucket : buckets) {
+            if (bucket >= 0) bucketSizes[bucket]++;
+        }
+        long bound = 0; // all pairs of a small bucket, maxBucketSize - 1 per member of a large one
+        boolean sampled = false;
+        for (int size : bucketSizes) {
+            bound += (size <= maxBucketSize) ? size * (size - 1) / 2 : size * (maxBucketSize - 1);
+            sampled |= size > maxBucketSize;
+        }
+        assertTrue(sampled, "the corpus should have a bucket larger than " + maxBucketSize);
+        assertTrue(lsh.getNumCandidates() <= bound, lsh.getNumCandidates() + " > " + bound);
+        for (int i = 0; i < docs.getNumDocs(); i++) {
+            if (buckets[i] < 0) continue;
+            int numCandidates = 0;
+            for (int j = 0; j < docs.getNumDocs(); j++) {
+                if (j == i || !lsh.isCandidate(i, j)) continue;
+                assertEquals(buckets[i], buckets[j], "candidates " + i + " and " + j + " share no bucket");
+                numCandidates++;
+            }
+            assertTrue(numCandidates >= Math.min(bucketSizes[buckets[i]] - 1, maxBucketSize - 1), "document " + i);
+        }
+    }
+
+    // each document's bucket: its one band, the low BITS bits of its signature; -1 for empty documents
+    private static int[] buckets(SimHashLsh lsh, SparseDocs docs) {
+        int[] buckets = new int[docs.getNumDocs()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = (docs.rowLength(i) == 0) ? -1 : (int) (lsh.getSignatures()[i] & ((1 << BITS) - 1));
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/* the selected kernels (vector when the JVM has the module) against the scalar loops: cosine
+ * rows bit-identical, gathered sums equal up to the order of the additions */
+class SimKernelsTest {
+
+    private ScalarSimKernels scalar = new ScalarSimKernels();
+
+    @Test
+    void cosineRowMatchesScalar() {
+        Random random = new Random(435);
+        for (int length : new int[] { 0, 1, 3, 8, 17, 64, 257 }) {
+            long[] dots = new long[length];
+            double[] magnitudes = new double[length + 5];
+            for (int t = 0; t < length; t++) dots[t] = (random.nextInt(3) == 0) ? 0 : random.nextInt(1000);
+            for (int t = 0; t < magnitudes.length; t++) magnitudes[t] = 1 + 100 * random.nextDouble();
+            float[] expected = new float[length + 2];
+            float[] actual = new float[length + 2];
+            scalar.cosineRow(dots, 31.5, magnitudes, 5, length, expected, 2);
+            SimKernels.KERNELS.cosineRow(dots, 31.5, magnitudes, 5, length, actual, 2);
+            for (int t = 0; t < expected.length; t++) assertEquals(expected[t], actual[t], SimKernels.KERNELS.getName() + ", entry " + t);
+        }
+    }
+    @Test
+    void gatherSumMatchesScalar() {
+        Random random = new Random(435);
+        float[] values = new float[300];
+        for (int t = 0; t < values.length; t++) values[t] = random.nextFloat();
+        for (int length : new int[] { 0, 1, 7, 16, 99 }) {
+            int[] indices = new int[length + 3];
+            for (int k = 0; k < indices.length; k++) indices[k] = random.nextInt(values.length - 10);
+            double[] expectedSums = new double[indices.length];
+            double[] actualSums = new double[indices.length];
+            double expected = scalar.gatherSum(values, 10, indices, 3, length + 3, expectedSums);
+            double actual = SimKernels.KERNELS.gatherSum(values, 10, indices, 3, length + 3, actualSums);
+            assertEquals(expected, actual, 1e-9, SimKernels.KERNELS.getName());
+            assertEquals(expected, SimKernels.KERNELS.gatherSum(values, 10, indices, 3, length + 3, null), 1e-9);
+            // the per-term sums are single additions, so they are exact
+            for (int k = 0; k < indices.length; k++) assertEquals(expectedSums[k], actualSums[k], "sum " + k);
+        }
+    }
+}
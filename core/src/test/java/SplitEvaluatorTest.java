@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/* the row-sum split evaluators against the cut and intra sums taken pair by pair */
+class SplitEvaluatorTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    @ParameterizedTest
+    @EnumSource(value = SimMatrix.Storage.class, names = { "DENSE", "PACKED", "TILED" })
+    void evaluateMatchesPairwiseSums(SimMatrix.Storage storage) {
+        Data d = TestCorpus.load(storage);
+        SimMatrix sims = d.getSims();
+        Random random = new Random(435);
+        for (int trial = 0; trial < 20; trial++) {
+            // a random cluster in a random member order, split at random
+            int n = 2 + random.nextInt(d.getNumDocs() - 1);
+            int[] members = new int[n];
+            for (int j = 0, doc = 0; j < n; doc++) {
+                if (random.nextInt(d.getNumDocs() - doc) < n - j) members[j++] = doc;
+            }
+            for (int j = n - 1; j > 0; j--) {
+                int k = random.nextInt(j + 1);
+                int member = members[j];
+                members[j] = members[k];
+                members[k] = member;
+            }
+            boolean[] inSecond = new boolean[n];
+            int sizeTwo = 0;
+            for (int j = 0; j < n; j++) {
+                inSecond[j] = random.nextBoolean();
+                if (inSecond[j]) sizeTwo++;
+            }
+            double[] expected = new double[3]; // intra(first), intra(second), cut
+            for (int j = 0; j < n; j++) {
+                for (int k = 0; k < n; k++) {
+                    double sim = sims.get(members[j], members[k]);
+                    if (inSecond[j] != inSecond[k]) expected[2] += sim / 2; // each unordered pair twice
+                    else expected[inSecond[j] ? 1 : 0] += sim;
+                }
+            }
+            SplitEvaluator evaluator = (sims instanceof TiledSimMatrix) ? new TiledSplitEvaluator((TiledSimMatrix) sims, members)
+                                                                         : new MatrixSplitEvaluator(sims, members);
+            assertEquals(d.getSimSum(members), evaluator.getTotalSum(), TOLERANCE * n * n, "total, trial " + trial);
+            double[] simSums = new double[2];
+            double cutSum = evaluator.evaluate(inSecond, sizeTwo, simSums);
+            assertEquals(expected[0], simSums[0], TOLERANCE * n * n, "first half, trial " + trial);
+            assertEquals(expected[1], simSums[1], TOLERANCE * n * n, "second half, trial " + trial);
+            assertEquals(expected[2], cutSum, TOLERANCE * n * n, "cut, trial " + trial);
+        }
+    }
+}
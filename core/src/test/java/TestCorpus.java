@@ -0,0 +1,29 @@
+import java.io.File;
+import java.net.URISyntaxException;
+
+/* the small fixed corpus in src/test/resources: 45 documents over 24 words in four topics, with
+ * exact duplicates and a scaled copy (ties at similarity 1) and two documents sharing words with
+ * few others (ties at 0), so tie-breaking is exercised as well as the merge order */
+final class TestCorpus {
+
+    static final String DOCWORD = "docword.small.txt";
+    static final String VOCAB = "vocab.small.txt";
+
+    private TestCorpus(){
+    }
+
+    static String path(String resource) {
+        try {
+            return new File(TestCorpus.class.getResource("/" + resource).toURI()).getPath();
+        }
+        catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    static Data load(SimMatrix.Storage storage) {
+        return load(1, storage);
+    }
+    static Data load(int numThreads, SimMatrix.Storage storage) {
+        return new Data(path(DOCWORD), path(VOCAB), numThreads, storage);
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/* the tile cache and the threads' recent tiles sharing one budget of maxCachedTiles */
+class TiledSimMatrixTest {
+
+    private static final int N = 300; // 5 x 5 tiles of 64, 15 stored
+
+    @Test
+    void recentTilesCountAgainstTheBudget() throws IOException, InterruptedException {
+        TiledSimMatrix sims = TiledSimMatrix.createTemp(N, 64, 10);
+        for (int i = 0; i < N; i++) {
+            for (int j = i; j < N; j++) sims.set(i, j, sim(i, j));
+        }
+        assertEquals(10, sims.getCacheCapacity()); // no reads yet
+        readAll(sims);
+        assertEquals(6, sims.getCacheCapacity());
+        // a second reader takes four more slots, a third the one left but the cache's own, a fourth none
+        int[] expected = { 2, 1, 1 };
+        for (int t = 0; t < expected.length; t++) {
+            Thread reader = new Thread(() -> readAll(sims));
+            reader.start();
+            reader.join();
+            assertEquals(expected[t], sims.getCacheCapacity(), "after reader " + (t + 2));
+        }
+        readAll(sims); // still served, and still correct, by the smallest cache
+    }
+
+    private static void readAll(TiledSimMatrix sims) {
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++) assertEquals((float) sim(i, j), sims.get(i, j), i + " " + j);
+        }
+    }
+    private static double sim(int i, int j) {
+        return 1.0 / (1 + Math.min(i, j) + 7 * Math.max(i, j));
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+/* similarity matrix that grows one document at a time: the documents it started with stay in
+ * a base matrix of any storage, untouched, and each appended document x gets its own row of
+ * floats holding its similarities with documents 0..x (the lower triangle, so a new document
+ * never adds to an existing row). The row table doubles when it fills up, so an append costs
+ * its own row plus amortized O(1). Appended rows are floats like the packed storages, so over
+ * a DENSE base they are rounded where a rebuild would not be */
+public class AppendableSimMatrix implements SimMatrix {
+
+    private SimMatrix base;
+    private int baseSize;
+    private int n;
+    private float[][] rows; // rows[x - baseSize][y] = sim(x, y) for y <= x
+
+    public AppendableSimMatrix(SimMatrix base){
+        this.base = base;
+        baseSize = base.size();
+        n = baseSize;
+        rows = new float[16][];
+    }
+
+    // appends document n with values[y] = sim(n, y) for y = 0..n (itself last); the array is kept, not copied
+    public void appendRow(float[] values) {
+        if (values.length != n + 1) {
+            throw new IllegalArgumentException("row of document " + n + " needs " + (n + 1) + " similarities, not " + values.length);
+        }
+        if (n - baseSize == rows.length) rows = Arrays.copyOf(rows, 2 * rows.length);
+        rows[n - baseSize] = values;
+        n++;
+    }
+
+    public int size() {
+        return n;
+    }
+    public double get(int i, int j) {
+        if (i < j) {
+            int k = i;
+            i = j;
+            j = k;
+        }
+        if (i < baseSize) return base.get(i, j);
+        return rows[i - baseSize][j];
+    }
+    public void set(int i, int j, double sim) {
+        if (i < j) {
+            int k = i;
+            i = j;
+            j = k;
+        }
+        if (i < baseSize) base.set(i, j, sim);
+        else rows[i - baseSize][j] = (float) sim;
+    }
+    public SimMatrix copy() {
+        AppendableSimMatrix copy = new AppendableSimMatrix(base.copy());
+        for (int x = baseSize; x < n; x++) copy.appendRow(Arrays.copyOf(rows[x - baseSize], x + 1));
+        return copy;
+    }
+
+    /* Getters */
+
+    public SimMatrix getBase() {
+        return base;
+    }
+    public int getBaseSize() {
+        return baseSize;
+    }
+}
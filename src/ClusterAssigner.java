@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* places documents appended to a Data into an existing clustering (from HAC or HDC) instead of
+ * clustering again: each new document joins the cluster it is most similar to, by average link
+ * (mean similarity to the members) or complete link (similarity to the least similar member),
+ * found in one pass over its row of similarities. The joined cluster's similarity sum, average
+ * similarity and member list are then updated from that same row, so nothing is recomputed.
+ *
+ * Drift is the relative drop of the average of the average cluster similarities since the
+ * clustering was made; new documents that fit no cluster well pull it down, and once it passes
+ * the threshold needsRecluster() says the clustering should be redone on the grown corpus */
+public class ClusterAssigner {
+
+    public enum Linkage {
+        AVERAGE, // mean similarity to the cluster's members
+        COMPLETE // similarity to the cluster's least similar member
+    }
+
+    private Data d;
+    private Partition partition; // grows with d
+    private ArrayList<ArrayList<Integer>> clusters; // nonempty clusters in slot order, members sorted
+    private ArrayList<Double> avgClusterSims; // same order as clusters
+    private int[] positions; // position of each cluster slot in clusters, -1 for empty slots
+    private double[] simSums; // by slot: similarity sum of all (ordered) member pairs, self-pairs included
+    private double[] linkSums; // scratch, by slot: the new document's similarity sum with the members
+    private double[] linkMins; // scratch, by slot: its smallest similarity with a member
+    private Linkage linkage;
+    private double driftThreshold;
+    private double baselineAvgSim; // average of avgClusterSims when the clustering was made
+    private double avgSimTotal; // current sum of avgClusterSims
+    private int numAssigned;
+    private Metrics metrics;
+
+    // over a partition of d's documents, with its own cluster lists
+    public ClusterAssigner(Data d, Partition partition, Linkage linkage, double driftThreshold){
+        this(d, partition, partition.toClusters(), avgSims(d, partition), linkage, driftThreshold);
+    }
+    // clusters and avgClusterSims are the clustering's cached lists (nonempty clusters in slot order,
+    // as Partition.toClusters() makes them); they are updated in place as documents are assigned
+    public ClusterAssigner(Data d, Partition partition, ArrayList<ArrayList<Integer>> clusters, ArrayList<Double> avgClusterSims,
+                           Linkage linkage, double driftThreshold){
+        this.d = d;
+        this.partition = partition;
+        this.clusters = clusters;
+        this.avgClusterSims = avgClusterSims;
+        this.linkage = linkage;
+        this.driftThreshold = driftThreshold;
+        metrics = d.getMetrics();
+        int capacity = partition.getCapacity();
+        positions = new int[capacity];
+        simSums = new double[capacity];
+        linkSums = new double[capacity];
+        linkMins = new double[capacity];
+        int position = 0;
+        for (int c = 0; c < capacity; c++) {
+            if (partition.size(c) == 0) {
+                positions[c] = -1;
+                continue;
+            }
+            positions[c] = position;
+            double size = partition.size(c);
+            simSums[c] = avgClusterSims.get(position) * size * size;
+            avgSimTotal += avgClusterSims.get(position);
+            position++;
+        }
+        if (position == 0) throw new IllegalArgumentException("the partition has no clusters to assign to");
+        baselineAvgSim = avgSimTotal / position;
+    }
+    private static ArrayList<Double> avgSims(Data d, Partition partition) {
+        ArrayList<Double> avgSims = new ArrayList<Double>();
+        for (int c = 0; c < partition.getCapacity(); c++) {
+            if (partition.size(c) > 0) avgSims.add(d.getAvgSim(partition.getSortedMembers(c)));
+        }
+        return avgSims;
+    }
+
+    // assigns the documents appended to d since the last call (or since the clustering) in document
+    // order, so each one also sees the new documents before it; returns how many were assigned
+    public int assignNewDocuments() {
+        int firstDoc = partition.getNumDocs();
+        int D = d.getNumDocs();
+        if (firstDoc >= D) return 0;
+        Metrics.Timer timer = metrics.startPhase("assign");
+        partition.grow(D);
+        for (int doc = firstDoc; doc < D; doc++) assign(doc);
+        metrics.count(Metrics.Counter.DOCS_ASSIGNED, D - firstDoc);
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, (long) (D - firstDoc) * (firstDoc + D + 1) / 2);
+        timer.stop();
+        return D - firstDoc;
+    }
+    // doc's cluster by linkage, ties going to the lowest slot; doc is larger than every clustered document
+    private int assign(int doc) {
+        SimMatrix sims = d.getSims();
+        Arrays.fill(linkSums, 0);
+        Arrays.fill(linkMins, Double.POSITIVE_INFINITY);
+        for (int other = 0; other < doc; other++) {
+            int c = partition.getLabel(other);
+            if (c < 0) continue;
+            double sim = sims.get(doc, other);
+            linkSums[c] += sim;
+            if (sim < linkMins[c]) linkMins[c] = sim;
+        }
+        int best = -1;
+        double bestLink = 0;
+        for (int c = 0; c < positions.length; c++) {
+            if (positions[c] < 0) continue;
+            double link = (linkage == Linkage.AVERAGE) ? linkSums[c] / partition.size(c) : linkMins[c];
+            if (best == -1 || link > bestLink) {
+                best = c;
+                bestLink = link;
+            }
+        }
+        // only the joined cluster's statistics change: its sum gains both (doc, member) pairs and the self-pair
+        double size = partition.size(best) + 1;
+        simSums[best] += 2 * linkSums[best] + sims.get(doc, doc);
+        partition.add(best, doc);
+        int position = positions[best];
+        double avgSim = simSums[best] / (size * size);
+        avgSimTotal += avgSim - avgClusterSims.get(position);
+        avgClusterSims.set(position, avgSim);
+        clusters.get(position).add(doc); // doc is the largest member, so the list stays sorted
+        numAssigned++;
+        return best;
+    }
+
+    /* Getters */
+
+    // relative drop of the average cluster similarity since the clustering was made (0 if it rose)
+    public double getDrift() {
+        if (baselineAvgSim <= 0) return 0;
+        double avgSim = avgSimTotal / clusters.size();
+        return Math.max(0, 1 - avgSim / baselineAvgSim);
+    }
+    public boolean needsRecluster() {
+        return getDrift() > driftThreshold;
+    }
+    public double getDriftThreshold() {
+        return driftThreshold;
+    }
+    public Linkage getLinkage() {
+        return linkage;
+    }
+    public int getNumAssigned() {
+        return numAssigned;
+    }
+    public Partition getPartition() {
+        return partition;
+    }
+    public ArrayList<ArrayList<Integer>> getClusters() {
+        return clusters;
+    }
+    public ArrayList<Double> getAvgClusterSims() {
+        return avgClusterSims;
+    }
+
+    /* Testing */
+
+    public static void main(String[] args) {
+        // arguments: docword file of the new documents (same vocabulary), then optionally k, linkage and drift threshold
+        String newDocwordFilename = args[0];
+        int numClusters = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+        Linkage linkage = (args.length > 2) ? Linkage.valueOf(args[2].toUpperCase()) : Linkage.AVERAGE;
+        double driftThreshold = (args.length > 3) ? Double.parseDouble(args[3]) : 0.05;
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", 1, SimMatrix.Storage.DENSE, System.getProperty("snapshot"));
+        HDC hdc = new HDC(d, numClusters, 5, true);
+        ClusterAssigner assigner = hdc.newAssigner(linkage, driftThreshold);
+        int firstDoc = d.appendDocwordFile(newDocwordFilename);
+        System.out.println("Appended documents " + firstDoc + ".." + (d.getNumDocs() - 1));
+        assigner.assignNewDocuments();
+        System.out.println("Assigned " + assigner.getNumAssigned() + " documents by " + linkage + " link; drift " + assigner.getDrift());
+        if (assigner.needsRecluster()) {
+            System.out.println("Drift above " + driftThreshold + ", re-clustering");
+            d.compactSims();
+            hdc = new HDC(d, numClusters, 5, true);
+        }
+        hdc.printClusters();
+    }
+}
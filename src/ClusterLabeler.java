@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+
+/* labels clusters with their most characteristic vocabulary terms. A cluster's term weights
+ * (summed counts, or summed counts times inverse document frequency) are accumulated from its
+ * members' sparse vectors, cluster after cluster, so all clusters together are one pass over the
+ * nonzeros; they go into a single W-length accumulator from which only the touched entries are
+ * read back and reset. The best numTerms of those are kept in a bounded min-heap, so a cluster
+ * costs O(its nonzeros + its distinct words * log numTerms) and nothing W-length is ever sorted
+ * or kept per cluster, whatever k and W are */
+public class ClusterLabeler {
+
+    public enum Weighting {
+        COUNTS, // occurrences in the cluster's documents
+        TF_IDF  // occurrences times log(D / number of documents containing the word)
+    }
+
+    private SparseDocs docs;
+    private String[] vocab;
+    private int numTerms;
+    private Weighting weighting;
+    private double[] idfs; // by word; null when weighting by counts
+
+    public ClusterLabeler(Data d, int numTerms, Weighting weighting){
+        if (d.getDocs() == null) throw new IllegalStateException("labels need the document vectors, which out-of-core runs do not keep");
+        if (numTerms < 1) throw new IllegalArgumentException(numTerms + " terms per label");
+        docs = d.getDocs();
+        vocab = d.getVocab();
+        this.numTerms = numTerms;
+        this.weighting = weighting;
+        if (weighting == Weighting.TF_IDF) {
+            // document frequencies are the posting list lengths
+            InvertedIndex index = d.getInvertedIndex();
+            int D = docs.getNumDocs();
+            idfs = new double[docs.getNumWords()];
+            for (int w = 0; w < idfs.length; w++) {
+                int df = index.postingLength(w);
+                idfs[w] = (df == 0) ? 0 : Math.log((double) D / df);
+            }
+        }
+    }
+
+    // word IDs of each cluster's top terms, best first (ties go to the lower word ID); words of
+    // weight 0, e.g. ones in every document under TF_IDF, are left out
+    public int[][] getTopWords(ArrayList<ArrayList<Integer>> clusters) {
+        int[] rowWordIDs = docs.getWordIDs();
+        int[] rowCounts = docs.getCounts();
+        double[] weights = new double[docs.getNumWords()];
+        int[] touched = new int[docs.getNumWords()];
+        int[] heapWords = new int[numTerms];
+        double[] heapWeights = new double[numTerms];
+        int[][] topWords = new int[clusters.size()][];
+        for (int c = 0; c < clusters.size(); c++) {
+            int numTouched = 0;
+            for (int doc : clusters.get(c)) {
+                for (int k = docs.rowStart(doc); k < docs.rowEnd(doc); k++) {
+                    int word = rowWordIDs[k];
+                    if (weights[word] == 0) touched[numTouched++] = word; // counts are positive
+                    weights[word] += rowCounts[k];
+                }
+            }
+            // the heap's root is the weakest of the best numTerms so far
+            int heapSize = 0;
+            for (int t = 0; t < numTouched; t++) {
+                int word = touched[t];
+                double weight = (idfs == null) ? weights[word] : weights[word] * idfs[word];
+                weights[word] = 0;
+                if (weight <= 0) continue;
+                if (heapSize < numTerms) {
+                    heapWords[heapSize] = word;
+                    heapWeights[heapSize] = weight;
+                    siftUp(heapWords, heapWeights, heapSize++);
+                }
+                else if (isWeaker(heapWeights[0], heapWords[0], weight, word)) {
+                    heapWords[0] = word;
+                    heapWeights[0] = weight;
+                    siftDown(heapWords, heapWeights, heapSize);
+                }
+            }
+            int[] top = new int[heapSize];
+            for (int i = heapSize - 1; i >= 0; i--) { // weakest first out of the heap
+                top[i] = heapWords[0];
+                heapWords[0] = heapWords[i];
+                heapWeights[0] = heapWeights[i];
+                siftDown(heapWords, heapWeights, i);
+            }
+            topWords[c] = top;
+        }
+        return topWords;
+    }
+    // each cluster's top terms as vocab words, best first
+    public String[][] getTopTerms(ArrayList<ArrayList<Integer>> clusters) {
+        int[][] topWords = getTopWords(clusters);
+        String[][] topTerms = new String[topWords.length][];
+        for (int c = 0; c < topWords.length; c++) {
+            topTerms[c] = new String[topWords[c].length];
+            for (int i = 0; i < topWords[c].length; i++) topTerms[c][i] = getTerm(topWords[c][i]);
+        }
+        return topTerms;
+    }
+    // the vocab word, or its 1-based ID if the vocab file was short
+    private String getTerm(int word) {
+        if (vocab != null && vocab[word] != null) return vocab[word];
+        return "#" + (word + 1);
+    }
+
+    /* Bounded heap */
+
+    // true if (weightOne, wordOne) ranks below (weightTwo, wordTwo)
+    private static boolean isWeaker(double weightOne, int wordOne, double weightTwo, int wordTwo) {
+        if (weightOne != weightTwo) return weightOne < weightTwo;
+        return wordOne > wordTwo;
+    }
+    private static void siftUp(int[] words, double[] weights, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!isWeaker(weights[i], words[i], weights[parent], words[parent])) break;
+            swap(words, weights, i, parent);
+            i = parent;
+        }
+    }
+    // restores the heap of the first size entries after its root changed
+    private static void siftDown(int[] words, double[] weights, int size) {
+        int i = 0;
+        while (true) {
+            int weakest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && isWeaker(weights[left], words[left], weights[weakest], words[weakest])) weakest = left;
+            if (right < size && isWeaker(weights[right], words[right], weights[weakest], words[weakest])) weakest = right;
+            if (weakest == i) return;
+            swap(words, weights, i, weakest);
+            i = weakest;
+        }
+    }
+    private static void swap(int[] words, double[] weights, int i, int j) {
+        int word = words[i];
+        words[i] = words[j];
+        words[j] = word;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+
+    /* Getters */
+
+    public int getNumTerms() {
+        return numTerms;
+    }
+    public Weighting getWeighting() {
+        return weighting;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* compares two clusterings of the same D documents through their contingency table, whose
+ * cell (a, b) counts the documents in cluster a of the first and cluster b of the second
+ * clustering. Every pair-counting measure follows from the cell, row and column counts, so
+ * the comparison costs O(D + k1 * k2) (O(D log D) when the table would be too large) instead
+ * of a pass over all D^2 document pairs. Documents missing from a clustering are grouped
+ * into one extra cluster of their own, as the pairwise version treated them */
+public class ClusteringComparison {
+
+    private long numDocs;
+    private long sumCellsSquared; // sum over cells of n_ab^2
+    private long sumRowsSquared; // sum over clusters of the first clustering of n_a^2
+    private long sumColsSquared;
+    private long sumCellPairs; // sum over cells of n_ab choose 2
+    private long sumRowPairs;
+    private long sumColPairs;
+    private double mutualInformation;
+    private double entropyOne;
+    private double entropyTwo;
+
+    public ClusteringComparison(int D, ArrayList<ArrayList<Integer>> cOne, ArrayList<ArrayList<Integer>> cTwo){
+        this(toLabels(D, cOne), cOne.size() + 1, toLabels(D, cTwo), cTwo.size() + 1);
+    }
+    public ClusteringComparison(Partition pOne, Partition pTwo){
+        this(toLabels(pOne), pOne.getCapacity() + 1, toLabels(pTwo), pTwo.getCapacity() + 1);
+    }
+    // labels must lie in 0..kOne-1 and 0..kTwo-1
+    private ClusteringComparison(int[] labelsOne, int kOne, int[] labelsTwo, int kTwo){
+        int D = labelsOne.length;
+        numDocs = D;
+        long[] rowCounts = new long[kOne];
+        long[] colCounts = new long[kTwo];
+        for (int i = 0; i < D; i++) {
+            rowCounts[labelsOne[i]]++;
+            colCounts[labelsTwo[i]]++;
+        }
+        for (long n : rowCounts) {
+            sumRowsSquared += n * n;
+            sumRowPairs += n * (n - 1) / 2;
+            entropyOne -= plogp(n);
+        }
+        for (long n : colCounts) {
+            sumColsSquared += n * n;
+            sumColPairs += n * (n - 1) / 2;
+            entropyTwo -= plogp(n);
+        }
+        if ((long) kOne * kTwo <= Math.max(1 << 22, 4L * D)) {
+            int[] cells = new int[kOne * kTwo];
+            for (int i = 0; i < D; i++) cells[labelsOne[i] * kTwo + labelsTwo[i]]++;
+            for (int a = 0; a < kOne; a++) {
+                for (int b = 0; b < kTwo; b++) addCell(cells[a * kTwo + b], rowCounts[a], colCounts[b]);
+            }
+        }
+        else {
+            // too many clusters for a dense table: sort the (a, b) keys and count the runs
+            long[] keys = new long[D];
+            for (int i = 0; i < D; i++) keys[i] = (long) labelsOne[i] * kTwo + labelsTwo[i];
+            Arrays.sort(keys);
+            for (int i = 0; i < D; ) {
+                int j = i;
+                while (j < D && keys[j] == keys[i]) j++;
+                addCell(j - i, rowCounts[(int) (keys[i] / kTwo)], colCounts[(int) (keys[i] % kTwo)]);
+                i = j;
+            }
+        }
+    }
+    // cluster index of every document; documents in no cluster get the extra last index
+    private static int[] toLabels(int D, ArrayList<ArrayList<Integer>> clusters) {
+        int[] labels = new int[D];
+        Arrays.fill(labels, clusters.size());
+        for (int c = 0; c < clusters.size(); c++) {
+            for (int doc : clusters.get(c)) labels[doc] = c;
+        }
+        return labels;
+    }
+    private static int[] toLabels(Partition partition) {
+        int[] labels = Arrays.copyOf(partition.getLabels(), partition.getNumDocs());
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] < 0) labels[i] = partition.getCapacity();
+        }
+        return labels;
+    }
+    private void addCell(long n, long rowCount, long colCount) {
+        if (n == 0) return;
+        sumCellsSquared += n * n;
+        sumCellPairs += n * (n - 1) / 2;
+        mutualInformation += (n / (double) numDocs) * Math.log((double) n * numDocs / ((double) rowCount * colCount));
+    }
+    // -p log p for a cluster of n documents
+    private double plogp(long n) {
+        if (n == 0) return 0;
+        double p = n / (double) numDocs;
+        return p * Math.log(p);
+    }
+
+    /* Measures */
+
+    // fraction of ordered document pairs (self-pairs included) in the same cluster in both clusterings
+    public double getPositiveAgreement() {
+        return sumCellsSquared / (double) (numDocs * numDocs);
+    }
+    // fraction of ordered document pairs in different clusters in both clusterings
+    public double getNegativeAgreement() {
+        return (numDocs * numDocs - sumRowsSquared - sumColsSquared + sumCellsSquared) / (double) (numDocs * numDocs);
+    }
+    // fraction of unordered pairs of distinct documents on which the clusterings agree
+    public double getRandIndex() {
+        double numPairs = numDocs * (numDocs - 1) / 2.0;
+        if (numPairs == 0) return 1;
+        return (numPairs + 2.0 * sumCellPairs - sumRowPairs - sumColPairs) / numPairs;
+    }
+    // Rand index corrected for chance (Hubert and Arabie)
+    public double getAdjustedRandIndex() {
+        double numPairs = numDocs * (numDocs - 1) / 2.0;
+        double expected = (numPairs == 0) ? 0 : ((double) sumRowPairs * sumColPairs) / numPairs;
+        double max = (sumRowPairs + sumColPairs) / 2.0;
+        if (max == expected) return 1; // both clusterings trivial
+        return (sumCellPairs - expected) / (max - expected);
+    }
+    // mutual information normalized by the geometric mean of the two entropies
+    public double getNormalizedMutualInformation() {
+        if (entropyOne == 0 || entropyTwo == 0) return (entropyOne == entropyTwo) ? 1 : 0;
+        return mutualInformation / Math.sqrt(entropyOne * entropyTwo);
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+
+/* priority-queue merge engine for complete-link HAC (the O(N^2 log N) algorithm of
+ * Manning et al., IIR ch. 17): row i keeps a max-heap of candidate merges (sim, j) for
+ * live clusters j > i, and after a merge the complete-link similarity to every other
+ * cluster is updated in O(1) by Lance-Williams, i.e. the minimum of the two old rows.
+ * Heap entries are invalidated lazily: an entry is stale once its cluster is merged away
+ * or its similarity has changed, and is dropped when it reaches the top of its heap.
+ *
+ * The merges reproduce the old full-matrix scan exactly: the most similar pair wins,
+ * ties go to the smallest i and then the smallest j, and the similarity of a pair
+ * involving a merged cluster is reported as -1 when all its member pairs are >= 1. The one
+ * difference is the merge of clusters 0 and 1: the scan started from that pair and only
+ * recorded a similarity when another pair beat it, so it reported -1 there, while the
+ * engine reports the pair's similarity (HACTest checks both).
+ *
+ * The document similarities are only read, never copied: a merged cluster's similarities to
+ * the other live clusters are kept in an overlay row of its own, made at its merge, while
+ * pairs of singletons read docSims. Rows are indexed through one shared slot -> index map of
+ * the live clusters, which is rebuilt (and every row shrunk to match) whenever the number of
+ * live clusters halves, so the overlay holds at most two entries per live cluster per merged
+ * cluster instead of the second full matrix */
+public class CompleteLinkEngine implements MergeEngine {
+
+    private int N;
+    private int numActive;
+    private SimMatrix docSims; // read-only; the similarity of two singleton clusters
+    private boolean exactFloats; // docSims holds floats, so float rows keep every minimum exactly
+    private float[][] floatRows; // overlay row of each merged cluster (null for singletons), when exactFloats
+    private double[][] doubleRows; // the same, when docSims holds doubles
+    private int[] rowStamps; // merge count when each cluster's row was made, 0 for singletons
+    private int numMerges;
+    private int[] liveIndex; // column of each slot in the overlay rows
+    private int rowLength; // live clusters when liveIndex was built
+    private int[] sizes; // 0 once a cluster has been merged away
+    private RowHeap[] heaps; // heaps[i] holds candidate merges with live clusters j > i
+    private long numLookups;
+
+    public CompleteLinkEngine(SimMatrix docSims){
+        N = docSims.size();
+        numActive = N;
+        this.docSims = docSims;
+        exactFloats = !(docSims instanceof DenseSimMatrix || (docSims instanceof AppendableSimMatrix && 
+                                                              ((AppendableSimMatrix) docSims).getBase() instanceof DenseSimMatrix));
+        if (exactFloats) floatRows = new float[N][];
+        else doubleRows = new double[N][];
+        rowStamps = new int[N];
+        liveIndex = new int[N];
+        for (int i = 0; i < N; i++) liveIndex[i] = i;
+        rowLength = N;
+        sizes = new int[N];
+        Arrays.fill(sizes, 1);
+        heaps = new RowHeap[N];
+        for (int i = 0; i < N; i++) {
+            heaps[i] = new RowHeap(N - i - 1);
+            rebuildHeap(i);
+        }
+    }
+
+    // complete-link similarity of two live clusters, as the full scan reported it: merged
+    // clusters started their minimum at 1 and only kept smaller similarities, using -1 otherwise.
+    // Not counted here: each caller adds its reads to numLookups in bulk, per row or per merge
+    public double getSim(int i, int j) {
+        double sim = getMinSim(i, j);
+        if (sizes[i] == 1 && sizes[j] == 1) return sim;
+        return (sim < 1) ? sim : -1;
+    }
+    // smallest document similarity between the members of live clusters i != j: a pair of merged
+    // clusters is in the newer one's row, which was made while the older one was already live
+    private double getMinSim(int i, int j) {
+        int stampI = rowStamps[i];
+        int stampJ = rowStamps[j];
+        if (stampI == stampJ) return docSims.get(i, j); // both singletons
+        return (stampI > stampJ) ? getRowSim(i, j) : getRowSim(j, i);
+    }
+    private double getRowSim(int c, int k) {
+        return exactFloats ? floatRows[c][liveIndex[k]] : doubleRows[c][liveIndex[k]];
+    }
+    public int getNumActive() {
+        return numActive;
+    }
+    public long getNumLookups() {
+        return numLookups;
+    }
+    // most similar pair {i, j}, i < j, of live clusters; null if fewer than two are left
+    public int[] nextMerge() {
+        int bestI = -1;
+        double bestSim = 0;
+        long checks = 0;
+        for (int i = 0; i < N; i++) {
+            if (sizes[i] == 0) continue;
+            RowHeap heap = heaps[i];
+            while (heap.size > 0) {
+                checks++;
+                if (isCurrent(i, heap.topPartner(), heap.topSim())) break;
+                heap.pop();
+            }
+            if (heap.size == 0) continue;
+            if (bestI == -1 || heap.topSim() > bestSim) { // strictly larger, so ties keep the smallest i
+                bestI = i;
+                bestSim = heap.topSim();
+            }
+        }
+        numLookups += checks;
+        if (bestI == -1) return null;
+        numLookups++; // the caller reads the pair's similarity back
+        return new int[] { bestI, heaps[bestI].topPartner() };
+    }
+    // merges cluster from into cluster to and updates the similarities of to by Lance-Williams
+    public void merge(int to, int from) {
+        // the new row of to, from both old rows (read before either is replaced)
+        float[] floatRow = exactFloats ? new float[rowLength] : null;
+        double[] doubleRow = exactFloats ? null : new double[rowLength];
+        for (int k = 0; k < N; k++) {
+            if (k == to || k == from || sizes[k] == 0) continue;
+            double sim = Math.min(getMinSim(to, k), getMinSim(from, k));
+            if (exactFloats) floatRow[liveIndex[k]] = (float) sim;
+            else doubleRow[liveIndex[k]] = sim;
+        }
+        sizes[to] += sizes[from];
+        sizes[from] = 0;
+        heaps[from] = null;
+        if (exactFloats) {
+            floatRows[to] = floatRow;
+            floatRows[from] = null;
+        }
+        else {
+            doubleRows[to] = doubleRow;
+            doubleRows[from] = null;
+        }
+        rowStamps[to] = ++numMerges;
+        rowStamps[from] = 0;
+        numActive -= 1;
+        numLookups += 2L * (numActive - 1); // both old rows, for every other live cluster
+        if (numActive <= rowLength / 2) compactRows();
+        long pushes = 0;
+        for (int k = 0; k < N; k++) {
+            if (k == to || sizes[k] == 0) continue;
+            if (k < to) {
+                RowHeap heap = heaps[k];
+                heap.push(getSim(k, to), to);
+                pushes++;
+                if (heap.size > 2 * numActive + 16) rebuildHeap(k); // drop the stale entries
+            }
+        }
+        numLookups += pushes;
+        rebuildHeap(to);
+    }
+    // renumbers the live clusters 0..numActive-1 and shrinks every overlay row to them
+    private void compactRows() {
+        int[] index = new int[N];
+        int numLive = 0;
+        for (int c = 0; c < N; c++) {
+            if (sizes[c] > 0) index[c] = numLive++;
+        }
+        for (int c = 0; c < N; c++) {
+            if (sizes[c] == 0 || rowStamps[c] == 0) continue;
+            if (exactFloats) {
+                float[] row = new float[numLive];
+                for (int k = 0; k < N; k++) {
+                    if (sizes[k] > 0) row[index[k]] = floatRows[c][liveIndex[k]];
+                }
+                floatRows[c] = row;
+            }
+            else {
+                double[] row = new double[numLive];
+                for (int k = 0; k < N; k++) {
+                    if (sizes[k] > 0) row[index[k]] = doubleRows[c][liveIndex[k]];
+                }
+                doubleRows[c] = row;
+            }
+        }
+        liveIndex = index;
+        rowLength = numLive;
+    }
+    private boolean isCurrent(int i, int j, double sim) {
+        return sizes[j] > 0 && getSim(i, j) == sim;
+    }
+    private void rebuildHeap(int i) {
+        RowHeap heap = heaps[i];
+        heap.size = 0;
+        for (int j = i + 1; j < N; j++) {
+            if (sizes[j] > 0) heap.append(getSim(i, j), j);
+        }
+        numLookups += heap.size;
+        heap.heapify();
+    }
+
+    // binary max-heap of (sim, partner) ordered by sim descending, then partner ascending
+    private static class RowHeap {
+        private double[] heapSims;
+        private int[] partners;
+        private int size;
+
+        RowHeap(int capacity) {
+            heapSims = new double[Math.max(capacity, 1)];
+            partners = new int[Math.max(capacity, 1)];
+        }
+        double topSim() {
+            return heapSims[0];
+        }
+        int topPartner() {
+            return partners[0];
+        }
+        private boolean before(int a, int b) {
+            return heapSims[a] > heapSims[b] || (heapSims[a] == heapSims[b] && partners[a] < partners[b]);
+        }
+        void append(double sim, int partner) {
+            if (size == heapSims.length) {
+                heapSims = Arrays.copyOf(heapSims, 2 * size);
+                partners = Arrays.copyOf(partners, 2 * size);
+            }
+            heapSims[size] = sim;
+            partners[size] = partner;
+            size++;
+        }
+        void push(double sim, int partner) {
+            append(sim, partner);
+            siftUp(size - 1);
+        }
+        void pop() {
+            size--;
+            swap(0, size);
+            siftDown(0);
+        }
+        void heapify() {
+            for (int k = size / 2 - 1; k >= 0; k--) siftDown(k);
+        }
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!before(k, parent)) return;
+                swap(k, parent);
+                k = parent;
+            }
+        }
+        private void siftDown(int k) {
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= size) return;
+                if (child + 1 < size && before(child + 1, child)) child++;
+                if (!before(child, k)) return;
+                swap(k, child);
+                k = child;
+            }
+        }
+        private void swap(int a, int b) {
+            double sim = heapSims[a];
+            heapSims[a] = heapSims[b];
+            heapSims[b] = sim;
+            int partner = partners[a];
+            partners[a] = partners[b];
+            partners[b] = partner;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/* byte-level parser for the UCI bag-of-words files: plain files are memory-mapped through
+ * their FileChannel and gzip files (recognized by their magic number) are streamed through a
+ * GZIPInputStream; the digits are decoded straight into primitive arrays with no per-token
+ * allocation. Bytes parsed and time taken are kept so throughput can be reported */
+public class CorpusParser {
+
+    private static final int MAP_SEGMENT = 1 << 30; // bytes mapped at a time
+    private static final int STREAM_BUFFER = 1 << 16;
+
+    private long bytesParsed;
+    private long parseNanos;
+
+    // parses a docword file: header D, W, NNZ followed by "docID wordID count" triplets
+    public SparseDocs parseDocword(String filename) throws IOException {
+        long start = System.nanoTime();
+        TripletSink sink = new TripletSink();
+        parse(filename, sink);
+        SparseDocs docs = sink.finish();
+        parseNanos += System.nanoTime() - start;
+        return docs;
+    }
+    // streams a docword file whose triplets are in docID order, handing the documents to handler in
+    // blocks of blockSize (the last may be shorter), so only one block is held at a time
+    public void parseDocwordBlocks(String filename, int blockSize, DocBlockHandler handler) throws IOException {
+        long start = System.nanoTime();
+        BlockSink sink = new BlockSink(blockSize, handler);
+        parse(filename, sink);
+        sink.finish();
+        parseNanos += System.nanoTime() - start;
+    }
+    // parses a vocab file, one word per line, into W entries
+    public String[] parseVocab(String filename, int W) throws IOException {
+        long start = System.nanoTime();
+        LineSink sink = new LineSink(W);
+        parse(filename, sink);
+        sink.finish();
+        parseNanos += System.nanoTime() - start;
+        return sink.vocab;
+    }
+
+    // receives a docword file from parseDocwordBlocks
+    public interface DocBlockHandler {
+        void header(int D, int W, long NNZ) throws IOException;
+        // docs holds documents firstDoc.. as its rows 0..
+        void block(int firstDoc, SparseDocs docs) throws IOException;
+    }
+
+    /* Getters */
+
+    public long getBytesParsed() {
+        return bytesParsed;
+    }
+    public long getParseNanos() {
+        return parseNanos;
+    }
+    public double getMegabytesPerSecond() {
+        return (parseNanos == 0) ? 0 : (bytesParsed / 1e6) / (parseNanos / 1e9);
+    }
+
+    /* Byte sources */
+
+    private void parse(String filename, ByteSink sink) throws IOException {
+        File file = new File(filename);
+        if (isGzip(file)) {
+            InputStream in = new GZIPInputStream(new FileInputStream(file), STREAM_BUFFER);
+            try {
+                byte[] buffer = new byte[STREAM_BUFFER];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    sink.consume(ByteBuffer.wrap(buffer, 0, n));
+                    bytesParsed += n;
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        else {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long size = channel.size();
+                for (long position = 0; position < size; position += MAP_SEGMENT) {
+                    long length = Math.min(MAP_SEGMENT, size - position);
+                    sink.consume(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                    bytesParsed += length;
+                }
+            }
+            finally {
+                raf.close();
+            }
+        }
+    }
+    private static boolean isGzip(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // receives the file contents in consecutive chunks; tokens may straddle two chunks
+    private interface ByteSink {
+        void consume(ByteBuffer chunk) throws IOException;
+    }
+
+    // decodes whitespace-separated unsigned integers: the D, W, NNZ header, then the triplets
+    private abstract static class NumberSink implements ByteSink {
+        protected long[] header = new long[3]; // D, W, NNZ
+        protected int numValues; // values decoded so far, header included
+        private long value; // value of the number currently being read
+        private boolean inNumber;
+        private int[] triplet = new int[3];
+
+        public void consume(ByteBuffer chunk) throws IOException {
+            int limit = chunk.limit();
+            for (int i = chunk.position(); i < limit; i++) {
+                int b = chunk.get(i);
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    // checked at every digit, so however long the token, value never wraps around
+                    if (value > Integer.MAX_VALUE) throw new IOException("value out of range after " + numValues + " values");
+                    inNumber = true;
+                }
+                else if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                    if (inNumber) endNumber();
+                }
+                else {
+                    throw new IOException("unexpected character '" + (char) b + "' after " + numValues + " values");
+                }
+            }
+        }
+        private void endNumber() throws IOException {
+            if (numValues < 3) {
+                header[numValues] = value;
+                if (numValues == 2) start();
+            }
+            else {
+                int t = (numValues - 3) % 3;
+                triplet[t] = (int) value;
+                if (t == 2) add(triplet[0] - 1, triplet[1] - 1, triplet[2]); // IDs in given data set begin at 1, not 0
+            }
+            numValues++;
+            value = 0;
+            inNumber = false;
+        }
+        // flushes the last number and checks that the file ended after a complete triplet
+        protected void finishNumbers() throws IOException {
+            if (inNumber) endNumber();
+            if (numValues < 3) throw new IOException("missing header");
+            if (numValues % 3 != 0) throw new IOException("incomplete triplet at end of file");
+        }
+        // called once the header has been read
+        protected abstract void start() throws IOException;
+        // called with each triplet, IDs 0-based
+        protected abstract void add(int docID, int wordID, int count) throws IOException;
+    }
+
+    // collects all triplets into one SparseDocs
+    private static class TripletSink extends NumberSink {
+        private int D;
+        private int W;
+        private int n; // triplets stored
+        private int[] rowSizes; // triplets per document while docIDs arrive in order
+        private int[] docIDs; // only materialized once a docID arrives out of order
+        private int[] wordIDs;
+        private int[] counts;
+        private int lastDoc;
+
+        protected void start() {
+            D = (int) header[0];
+            W = (int) header[1];
+            int NNZ = (int) header[2];
+            rowSizes = new int[D];
+            wordIDs = new int[NNZ];
+            counts = new int[NNZ];
+        }
+        protected void add(int docID, int wordID, int count) throws IOException {
+            if (docID < 0 || docID >= D || wordID < 0 || wordID >= W) {
+                throw new IOException("triplet " + n + " (" + (docID + 1) + " " + (wordID + 1) + " " + count + ") out of range");
+            }
+            if (n == wordIDs.length) { // header undercounted, so grow
+                int capacity = Math.max(16, 2 * n);
+                wordIDs = Arrays.copyOf(wordIDs, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                if (docIDs != null) docIDs = Arrays.copyOf(docIDs, capacity);
+            }
+            if (docIDs == null && docID < lastDoc) docIDs = expandDocIDs(wordIDs.length);
+            if (docIDs != null) docIDs[n] = docID;
+            else rowSizes[docID] += 1;
+            lastDoc = docID;
+            wordIDs[n] = wordID;
+            counts[n] = count;
+            n++;
+        }
+        // docIDs of the first n triplets, which so far were in docID order
+        private int[] expandDocIDs(int capacity) {
+            int[] expanded = new int[capacity];
+            int k = 0;
+            for (int i = 0; i < D; i++) {
+                for (int j = 0; j < rowSizes[i]; j++) expanded[k++] = i;
+            }
+            return expanded;
+        }
+        SparseDocs finish() throws IOException {
+            finishNumbers();
+            if (docIDs == null) {
+                // in docID order: the arrays already are CSR if every row is strictly increasing and nonzero
+                int[] rowOffsets = new int[D + 1];
+                for (int i = 0; i < D; i++) rowOffsets[i + 1] = rowOffsets[i] + rowSizes[i];
+                if (isCompact(rowOffsets)) {
+                    if (n < wordIDs.length) {
+                        wordIDs = Arrays.copyOf(wordIDs, n);
+                        counts = Arrays.copyOf(counts, n);
+                    }
+                    return new SparseDocs(D, W, rowOffsets, wordIDs, counts);
+                }
+                docIDs = expandDocIDs(n);
+            }
+            return SparseDocs.fromTriplets(D, W, docIDs, wordIDs, counts, n);
+        }
+        private boolean isCompact(int[] rowOffsets) {
+            for (int i = 0; i < D; i++) {
+                for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+                    if (counts[k] == 0 || (k > rowOffsets[i] && wordIDs[k] <= wordIDs[k - 1])) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // hands the triplets over one block of documents at a time; docIDs must not decrease
+    private static class BlockSink extends NumberSink {
+        private int blockSize;
+        private DocBlockHandler handler;
+        private int D;
+        private int W;
+        private int firstDoc; // first document of the current block
+        private int n; // triplets in the current block
+        private int[] docIDs = new int[1024]; // relative to firstDoc
+        private int[] wordIDs = new int[1024];
+        private int[] counts = new int[1024];
+        private int lastDoc;
+
+        BlockSink(int blockSize, DocBlockHandler handler) {
+            this.blockSize = blockSize;
+            this.handler = handler;
+        }
+        protected void start() throws IOException {
+            D = (int) header[0];
+            W = (int) header[1];
+            handler.header(D, W, header[2]);
+        }
+        protected void add(int docID, int wordID, int count) throws IOException {
+            if (docID < 0 || docID >= D || wordID < 0 || wordID >= W) {
+                throw new IOException("triplet (" + (docID + 1) + " " + (wordID + 1) + " " + count + ") out of range");
+            }
+            if (docID < lastDoc) throw new IOException("docID " + (docID + 1) + " out of order; block streaming needs a sorted docword file");
+            lastDoc = docID;
+            while (docID >= firstDoc + blockSize) flush();
+            if (n == wordIDs.length) {
+                docIDs = Arrays.copyOf(docIDs, 2 * n);
+                wordIDs = Arrays.copyOf(wordIDs, 2 * n);
+                counts = Arrays.copyOf(counts, 2 * n);
+            }
+            docIDs[n] = docID - firstDoc;
+            wordIDs[n] = wordID;
+            counts[n] = count;
+            n++;
+        }
+        // hands over the current block (empty documents included) and starts the next
+        private void flush() throws IOException {
+            int numDocs = Math.min(blockSize, D - firstDoc);
+            handler.block(firstDoc, SparseDocs.fromTriplets(numDocs, W, docIDs, wordIDs, counts, n));
+            firstDoc += numDocs;
+            n = 0;
+        }
+        void finish() throws IOException {
+            finishNumbers();
+            while (firstDoc < D) flush();
+        }
+    }
+
+    // splits the bytes into lines ('\n' or "\r\n"), keeping at most the first capacity of them
+    private static class LineSink implements ByteSink {
+        private String[] vocab;
+        private int numLines;
+        private byte[] line = new byte[64];
+        private int lineLength;
+
+        LineSink(int capacity) {
+            vocab = new String[capacity];
+        }
+        public void consume(ByteBuffer chunk) {
+            int limit = chunk.limit();
+            for (int i = chunk.position(); i < limit; i++) {
+                byte b = chunk.get(i);
+                if (b == '\n') endLine();
+                else {
+                    if (lineLength == line.length) line = Arrays.copyOf(line, 2 * lineLength);
+                    line[lineLength++] = b;
+                }
+            }
+        }
+        private void endLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') length--;
+            if (numLines < vocab.length) vocab[numLines] = new String(line, 0, length, StandardCharsets.UTF_8);
+            numLines++;
+            lineLength = 0;
+        }
+        void finish() {
+            if (lineLength > 0) endLine(); // last line without a newline
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/* versioned binary snapshot of a parsed corpus, so repeated runs skip parsing and the
+ * O(D^2) similarity computation. Layout, in native byte order:
+ *   header: MAGIC, VERSION, length and modification time of the docword and vocab files, their
+ *           CRC32s, D, W, NNZ, flags, offset of sims, then the build parameters of the run that
+ *           wrote it: storage (ordinal), neighbour count, signature bits and bands
+ *   CSR rowOffsets[D + 1], wordIDs[NNZ], counts[NNZ], magnitudes[D]
+ *   vocab as byte lengths[W] (-1 for a missing word) followed by the UTF-8 bytes
+ *   optionally the packed upper-triangular float similarity matrix, 8-byte aligned
+ * The arrays are copied back through mapped buffers, while the similarity matrix is handed
+ * out memory-mapped (read-only) for the reader to copy into the storage it wants. A snapshot
+ * whose magic or version do not match, or whose source files have another length or
+ * modification time, is treated as stale; comparing the CRC32s too, which reads both source
+ * files in full, is left to the caller */
+public class CorpusSnapshot {
+
+    private static final int MAGIC = 0x434f5334; // "COS4"; reads differently in the other byte order
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 96;
+    private static final int FLAG_SIMS = 1;
+    private static final int CHUNK = 1 << 20; // bytes buffered per write
+    private static final int MAP_INTS = 1 << 26; // ints mapped per read
+
+    private SparseDocs docs;
+    private double[] magnitudes;
+    private String[] vocab;
+    private SimMatrix sims; // null if the snapshot has no similarity matrix
+    private SimMatrix.Storage storage; // build parameters of the run that wrote the snapshot
+    private int numNeighbours;
+    private int signatureBits;
+    private int numBands;
+
+    private CorpusSnapshot(SparseDocs docs, double[] magnitudes, String[] vocab, SimMatrix sims){
+        this.docs = docs;
+        this.magnitudes = magnitudes;
+        this.vocab = vocab;
+        this.sims = sims;
+    }
+
+    // CRC32 of a source file's bytes
+    public static long checksum(String filename) throws IOException {
+        CRC32 crc = new CRC32();
+        RandomAccessFile raf = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += (1 << 30)) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(1 << 30, size - position)));
+            }
+        }
+        finally {
+            raf.close();
+        }
+        return crc.getValue();
+    }
+
+    // the snapshot of docs etc. parsed from docwordFile and vocabFile by a run with the given build parameters
+    public static void write(File file, File docwordFile, File vocabFile, SparseDocs docs, double[] magnitudes, String[] vocab,
+                             SimMatrix sims, SimMatrix.Storage storage, int numNeighbours, int signatureBits, int numBands) throws IOException {
+        int D = docs.getNumDocs();
+        int W = docs.getNumWords();
+        byte[][] words = new byte[W][];
+        int[] wordLengths = new int[W];
+        for (int i = 0; i < W; i++) {
+            words[i] = (vocab[i] == null) ? null : vocab[i].getBytes(StandardCharsets.UTF_8);
+            wordLengths[i] = (words[i] == null) ? -1 : words[i].length;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK).order(ByteOrder.nativeOrder());
+            channel.position(HEADER_BYTES);
+            writeInts(channel, buffer, docs.getRowOffsets(), D + 1);
+            writeInts(channel, buffer, docs.getWordIDs(), docs.getNNZ());
+            writeInts(channel, buffer, docs.getCounts(), docs.getNNZ());
+            for (int i = 0; i < D; i++) {
+                if (buffer.remaining() < 8) flush(channel, buffer);
+                buffer.putDouble(magnitudes[i]);
+            }
+            writeInts(channel, buffer, wordLengths, W);
+            for (int i = 0; i < W; i++) {
+                if (words[i] == null) continue;
+                if (buffer.remaining() < words[i].length) flush(channel, buffer);
+                buffer.put(words[i]); // words are far shorter than the buffer
+            }
+            flush(channel, buffer);
+            long simsOffset = 0;
+            if (sims != null) {
+                simsOffset = (channel.position() + 7) & ~7L;
+                channel.position(simsOffset);
+                int n = sims.size();
+                for (int i = 0; i < n; i++) {
+                    for (int j = i; j < n; j++) {
+                        if (buffer.remaining() < 4) flush(channel, buffer);
+                        buffer.putFloat((float) sims.get(i, j));
+                    }
+                }
+                flush(channel, buffer);
+            }
+            // header last, so an interrupted write never looks like a valid snapshot
+            buffer.putInt(MAGIC).putInt(VERSION);
+            buffer.putLong(docwordFile.length()).putLong(docwordFile.lastModified()).putLong(vocabFile.length()).putLong(vocabFile.lastModified());
+            buffer.putLong(checksum(docwordFile.getPath())).putLong(checksum(vocabFile.getPath()));
+            buffer.putInt(D).putInt(W).putInt(docs.getNNZ()).putInt((sims != null) ? FLAG_SIMS : 0).putLong(simsOffset);
+            buffer.putInt(storage.ordinal()).putInt(numNeighbours).putInt(signatureBits).putInt(numBands);
+            channel.position(0);
+            flush(channel, buffer);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, int length) throws IOException {
+        for (int k = 0; k < length; ) {
+            if (buffer.remaining() < 4) flush(channel, buffer);
+            int n = Math.min(length - k, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, k, n);
+            buffer.position(buffer.position() + 4 * n);
+            k += n;
+        }
+    }
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // returns null if the file is missing, of another version or byte order, or stale: docwordFile or
+    // vocabFile has changed length or modification time since, or, with verifyChecksums, contents
+    public static CorpusSnapshot read(File file, File docwordFile, File vocabFile, boolean verifyChecksums) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_BYTES) return null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.nativeOrder());
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+            if (header.getLong() != docwordFile.length() || header.getLong() != docwordFile.lastModified()) return null;
+            if (header.getLong() != vocabFile.length() || header.getLong() != vocabFile.lastModified()) return null;
+            long docwordChecksum = header.getLong();
+            long vocabChecksum = header.getLong();
+            if (verifyChecksums && (docwordChecksum != checksum(docwordFile.getPath()) || vocabChecksum != checksum(vocabFile.getPath()))) {
+                return null;
+            }
+            int D = header.getInt();
+            int W = header.getInt();
+            int NNZ = header.getInt();
+            int flags = header.getInt();
+            long simsOffset = header.getLong();
+            int storageOrdinal = header.getInt();
+            SimMatrix.Storage[] storages = SimMatrix.Storage.values();
+            if (storageOrdinal < 0 || storageOrdinal >= storages.length) return null;
+
+            long position = HEADER_BYTES;
+            int[] rowOffsets = new int[D + 1];
+            position = readInts(channel, position, rowOffsets);
+            int[] wordIDs = new int[NNZ];
+            position = readInts(channel, position, wordIDs);
+            int[] counts = new int[NNZ];
+            position = readInts(channel, position, counts);
+            double[] magnitudes = new double[D];
+            map(channel, position, 8L * D).asDoubleBuffer().get(magnitudes);
+            position += 8L * D;
+            int[] wordLengths = new int[W];
+            position = readInts(channel, position, wordLengths);
+            String[] vocab = new String[W];
+            long vocabBytes = 0;
+            for (int i = 0; i < W; i++) vocabBytes += Math.max(0, wordLengths[i]);
+            MappedByteBuffer words = map(channel, position, vocabBytes);
+            for (int i = 0; i < W; i++) {
+                if (wordLengths[i] < 0) continue;
+                byte[] word = new byte[wordLengths[i]];
+                words.get(word);
+                vocab[i] = new String(word, StandardCharsets.UTF_8);
+            }
+            SimMatrix sims = null;
+            if ((flags & FLAG_SIMS) != 0) sims = new MappedSimMatrix(D, file, simsOffset, true);
+            CorpusSnapshot snapshot = new CorpusSnapshot(new SparseDocs(D, W, rowOffsets, wordIDs, counts), magnitudes, vocab, sims);
+            snapshot.storage = storages[storageOrdinal];
+            snapshot.numNeighbours = header.getInt();
+            snapshot.signatureBits = header.getInt();
+            snapshot.numBands = header.getInt();
+            return snapshot;
+        }
+        finally {
+            raf.close();
+        }
+    }
+    private static long readInts(FileChannel channel, long position, int[] values) throws IOException {
+        for (int k = 0; k < values.length; ) {
+            int n = Math.min(values.length - k, MAP_INTS);
+            map(channel, position, 4L * n).asIntBuffer().get(values, k, n);
+            position += 4L * n;
+            k += n;
+        }
+        return position;
+    }
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    /* Getters */
+
+    public SparseDocs getDocs() {
+        return docs;
+    }
+    public double[] getMagnitudes() {
+        return magnitudes;
+    }
+    public String[] getVocab() {
+        return vocab;
+    }
+    public SimMatrix getSims() {
+        return sims;
+    }
+    public SimMatrix.Storage getStorage() {
+        return storage;
+    }
+    public int getNumNeighbours() {
+        return numNeighbours;
+    }
+    public int getSignatureBits() {
+        return signatureBits;
+    }
+    public int getNumBands() {
+        return numBands;
+    }
+}
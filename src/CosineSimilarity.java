@@ -0,0 +1,85 @@
+import java.util.Arrays;
+
+/* sparse cosine similarity engine: instead of a W-length dot product per document pair,
+ * a document's row of dot products is accumulated over the postings of its own words, so
+ * the total cost is proportional to the sum of squared posting-list lengths */
+public class CosineSimilarity {
+
+    private SparseDocs docs;
+    private InvertedIndex index;
+    private double[] magnitudes;
+
+    public CosineSimilarity(SparseDocs docs, InvertedIndex index, double[] magnitudes){
+        this.docs = docs;
+        this.index = index;
+        this.magnitudes = magnitudes;
+    }
+
+    // adds doc's dot product with every document j in [fromDoc, toDoc) to dots[j - fromDoc];
+    // dot products are exact integers, so the order of accumulation does not matter
+    public void accumulateRow(int doc, int fromDoc, int toDoc, long[] dots) {
+        int[] rowWordIDs = docs.getWordIDs();
+        int[] rowCounts = docs.getCounts();
+        int[] postingDocIDs = index.getDocIDs();
+        int[] postingCounts = index.getCounts();
+        for (int k = docs.rowStart(doc); k < docs.rowEnd(doc); k++) {
+            int word = rowWordIDs[k];
+            long count = rowCounts[k];
+            int end = index.postingEnd(word);
+            for (int p = index.firstPosting(word, fromDoc); p < end; p++) {
+                int other = postingDocIDs[p];
+                if (other >= toDoc) break;
+                dots[other - fromDoc] += count * postingCounts[p];
+            }
+        }
+    }
+    // adds doc's dot product with every document j to dots[j], listing each j that shares a word
+    // with doc (doc included) once in touched; returns how many were listed. Only the touched
+    // entries of dots are nonzero afterwards, so they are all the caller has to reset
+    public int accumulateRow(int doc, long[] dots, int[] touched) {
+        int[] rowWordIDs = docs.getWordIDs();
+        int[] rowCounts = docs.getCounts();
+        int[] postingDocIDs = index.getDocIDs();
+        int[] postingCounts = index.getCounts();
+        int numTouched = 0;
+        for (int k = docs.rowStart(doc); k < docs.rowEnd(doc); k++) {
+            int word = rowWordIDs[k];
+            long count = rowCounts[k];
+            int end = index.postingEnd(word);
+            for (int p = index.postingStart(word); p < end; p++) {
+                int other = postingDocIDs[p];
+                if (dots[other] == 0) touched[numTouched++] = other; // counts are positive
+                dots[other] += count * postingCounts[p];
+            }
+        }
+        return numTouched;
+    }
+    // cosine similarity of docs i and j from their dot product
+    public double sim(int i, int j, long dotProduct) {
+        if (dotProduct == 0) return 0;
+        return (dotProduct / magnitudes[i]) / magnitudes[j]; // magnitudes are nonzero if the dot product is
+    }
+    // similarities of doc i with docs from.., from their dot products dots[0..length), into out[0..length)
+    public void simRow(int i, int from, long[] dots, int length, float[] out) {
+        SimKernels.KERNELS.cosineRow(dots, magnitudes[i], magnitudes, from, length, out, 0);
+    }
+    // fills the symmetric matrix one upper-triangular row at a time
+    public void buildSims(SimMatrix sims) {
+        int D = docs.getNumDocs();
+        long[] dots = new long[D];
+        float[] row = (sims instanceof PackedSimMatrix) ? new float[D] : null; // packed rows are written whole
+        for (int i = 0; i < D; i++) {
+            accumulateRow(i, i, D, dots);
+            if (row != null) {
+                simRow(i, i, dots, D - i, row);
+                ((PackedSimMatrix) sims).setRow(i, i, row, 0, D - i);
+                Arrays.fill(dots, 0, D - i, 0);
+                continue;
+            }
+            for (int j = i; j < D; j++) {
+                sims.set(i, j, sim(i, j, dots[j - i]));
+                dots[j - i] = 0;
+            }
+        }
+    }
+}
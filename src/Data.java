@@ -1,111 +1,383 @@
-import java.io.FileReader;
-import java.util.Scanner;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Data {
 
     private int D;
     private int W;
     private int NNZ;
-    private int[][] docs; // row is documentID, column is wordID
+    private SparseDocs docs; // row is documentID, nonzero columns are wordIDs
+    private double[] magnitudes;
     private String[] vocab;
-    //private ArrayList<ArrayList<Integer>> invertedIndex;
-    private double[][] sims;
+    private InvertedIndex invertedIndex;
+    private int indexedDocs; // documents 0..indexedDocs-1 are in invertedIndex; later ones were appended since
+    private SimMatrix sims; // null in k-nearest-neighbour graph mode
+    private KnnGraph knnGraph; // only built in k-nearest-neighbour graph mode
+    private int numNeighbours; // 0 for the full matrix
+    private int signatureBits; // > 0: the graph only scores SimHashLsh candidates
+    private int numBands;
+    private int numThreads; // threads used to build sims; 1 means the serial path
+    private SimMatrix.Storage storage;
+    private CorpusParser parser = new CorpusParser();
+    private String docwordFilename;
+    private String vocabFilename;
+    private boolean loadedFromSnapshot;
+    private int numAppended; // documents added by appendDocuments, which the source files don't contain
+    private Metrics metrics = new Metrics(); // phases and counters of this corpus and of the clusterings run on it
     
     public Data(String docwordFilename, String vocabFilename){
+        this(docwordFilename, vocabFilename, 1);
+    }
+    // the similarities are doubles (DENSE), as they always were; the float storages are opt-in
+    public Data(String docwordFilename, String vocabFilename, int numThreads){
+        this(docwordFilename, vocabFilename, numThreads, SimMatrix.Storage.DENSE);
+    }
+    public Data(String docwordFilename, String vocabFilename, int numThreads, SimMatrix.Storage storage){
+        this(docwordFilename, vocabFilename, numThreads, storage, null);
+    }
+    // if snapshotFilename holds an up-to-date snapshot of the two files (same length and modification time;
+    // -Dsnapshot.checksums=true compares their CRC32s too), it is loaded instead of parsing and recomputing the
+    // similarities, which are copied into the requested storage; otherwise a new snapshot is written there
+    // after the build (null: no snapshot)
+    public Data(String docwordFilename, String vocabFilename, int numThreads, SimMatrix.Storage storage, String snapshotFilename){
+        this(docwordFilename, vocabFilename, numThreads, storage, snapshotFilename, 0);
+    }
+    // out-of-core: the docword file (sorted by docID) is streamed in blocks and the similarities are computed
+    // block pair by block pair into a TiledSimMatrix on tileFilename (a temporary file if null), so neither the
+    // documents nor the matrix live on the heap; the build and the tile cache stay within heapBudget bytes.
+    // Only D, W, the vocab and the similarities are available afterwards. A failed build (unreadable or
+    // unsorted docword file, no room for the tiles) throws UncheckedIOException rather than leaving no matrix
+    public Data(String docwordFilename, String vocabFilename, long heapBudget, String tileFilename){
+        this.numThreads = 1;
+        this.storage = SimMatrix.Storage.TILED;
+        this.docwordFilename = docwordFilename;
+        this.vocabFilename = vocabFilename;
+        Metrics.Timer timer = metrics.startPhase("buildOutOfCore");
+        try {
+            OutOfCoreSimBuilder builder = new OutOfCoreSimBuilder(parser, heapBudget);
+            sims = builder.build(docwordFilename, (tileFilename == null) ? null : new File(tileFilename));
+            D = builder.getNumDocs();
+            W = builder.getNumWords();
+            NNZ = (int) builder.getNNZ();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("out-of-core build of " + docwordFilename + " failed", e);
+        }
+        finally {
+            timer.stop();
+        }
+        parseVocabFile(vocabFilename);
+    }
+    // with numNeighbours > 0, only each document's numNeighbours most similar documents are kept, in a
+    // KnnGraph (O(D * numNeighbours) memory), instead of the D x D matrix; HAC and HDC then run on the graph
+    public Data(String docwordFilename, String vocabFilename, int numThreads, SimMatrix.Storage storage, String snapshotFilename, 
+                int numNeighbours){
+        this(docwordFilename, vocabFilename, numThreads, storage, snapshotFilename, numNeighbours, 0, 0);
+    }
+    // with signatureBits > 0, the graph's neighbours are only looked for among the candidate pairs of
+    // SimHash signatures of that many bits cut into numBands LSH bands, trading recall for speed
+    public Data(String docwordFilename, String vocabFilename, int numThreads, SimMatrix.Storage storage, String snapshotFilename, 
+                int numNeighbours, int signatureBits, int numBands){
+        this.numThreads = numThreads;
+        this.numNeighbours = numNeighbours;
+        this.signatureBits = signatureBits;
+        this.numBands = numBands;
+        this.storage = storage;
+        this.docwordFilename = docwordFilename;
+        this.vocabFilename = vocabFilename;
+        if (snapshotFilename != null && loadSnapshot(snapshotFilename)) {
+            loadedFromSnapshot = true;
+            return;
+        }
         parseDocwordFile(docwordFilename);
         parseVocabFile(vocabFilename);
-        //buildInvertedIndex();
-        buildDocSims();
+        computeMagnitudes();
+        buildInvertedIndex();
+        if (numNeighbours > 0) buildKnnGraph();
+        else buildDocSims();
+        if (snapshotFilename != null) writeSnapshot(snapshotFilename, sims != null && storage != SimMatrix.Storage.DENSE);
     }
 
     private void parseDocwordFile(String filename) {
+        Metrics.Timer timer = metrics.startPhase("parse");
         try {
-            Scanner sc = new Scanner(new FileReader(filename));
-            D = sc.nextInt();
-            W = sc.nextInt();
-            NNZ = sc.nextInt(); // we don't do anything with this currently
-            
-            docs = new int[D][W];
-                
-            while (sc.hasNextInt()) {
-                int docID = sc.nextInt() - 1; // IDs in given data set begin at 1, not 0
-                int wordID = sc.nextInt() - 1; // IDs in given data set begin at 1, not 0
-                int count = sc.nextInt();
-                
-                docs[docID][wordID] = count;
-            }
-            sc.close();
+            docs = parser.parseDocword(filename);
+            D = docs.getNumDocs();
+            W = docs.getNumWords();
+            NNZ = docs.getNNZ();
         }
         catch (Exception e) {
             e.printStackTrace(System.out);
         }
+        timer.stop();
     }
     private void parseVocabFile(String filename) {
+        Metrics.Timer timer = metrics.startPhase("parseVocab");
         try {
-            Scanner sc = new Scanner(new FileReader(filename));
-            vocab = new String[W];
-            for (int i = 0; sc.hasNextLine(); i++) vocab[i] = sc.nextLine();
-            sc.close();
+            vocab = parser.parseVocab(filename, W);
         }
         catch (Exception e) {
             e.printStackTrace(System.out);
         }
+        timer.stop();
     }
-    /*
-    private void buildInvertedIndex() {
-        invertedIndex = new ArrayList<ArrayList<Integer>>(vocab.length);
-        for (int i = 0; i < W; i++) {
-            invertedIndex.add(new ArrayList<Integer>());
-            for (int j = 0; j < D; j++) {
-                if (docs[j][i] != 0) invertedIndex.get(i).add(j);
+    // returns false (and leaves this Data untouched) if there is no up-to-date snapshot
+    private boolean loadSnapshot(String filename) {
+        Metrics.Timer timer = metrics.startPhase("loadSnapshot");
+        boolean rewrite = false;
+        try {
+            CorpusSnapshot snapshot = CorpusSnapshot.read(new File(filename), new File(docwordFilename), new File(vocabFilename),
+                                                          Boolean.getBoolean("snapshot.checksums"));
+            if (snapshot == null) return false;
+            docs = snapshot.getDocs();
+            D = docs.getNumDocs();
+            W = docs.getNumWords();
+            NNZ = docs.getNNZ();
+            magnitudes = snapshot.getMagnitudes();
+            vocab = snapshot.getVocab();
+            buildInvertedIndex();
+            // the graph is not stored, and the snapshot's matrix is floats, so dense (double) storage recomputes it;
+            // the float storages get a copy in the storage asked for, not the snapshot's read-only mapping
+            if (numNeighbours > 0) buildKnnGraph();
+            else if (snapshot.getSims() != null && snapshot.getNumNeighbours() == 0 && storage != SimMatrix.Storage.DENSE) {
+                sims = newSimMatrix(D);
+                copySims(snapshot.getSims(), sims);
+            }
+            else {
+                buildDocSims();
+                // written by a run without a float matrix (dense or graph mode): add this run's
+                rewrite = storage != SimMatrix.Storage.DENSE;
             }
+            return true;
         }
+        catch (Exception e) {
+            e.printStackTrace(System.out);
+            return false;
+        }
+        finally {
+            timer.stop();
+            if (rewrite) writeSnapshot(filename, true);
+        }
+    }
+    private void buildInvertedIndex() {
+        Metrics.Timer timer = metrics.startPhase("buildInvertedIndex");
+        invertedIndex = new InvertedIndex(docs);
+        indexedDocs = D;
+        timer.stop();
     }
-    */
-    // determine document similarities using cosine similarity
-    private void buildDocSims() {
-        double[] magnitudes = new double[D];
+    private void computeMagnitudes() {
+        magnitudes = new double[D];
         for (int i = 0; i < D; i++) {
-            double sumSquares = 0;
-            for (int j = 0; j < W; j++) {
-                sumSquares += (docs[i][j] * docs[i][j]);
+            magnitudes[i] = docs.magnitude(i);
+        }
+    }
+    // determine document similarities using cosine similarity, accumulated over the inverted index
+    // (package-private so the benchmarks can time it on its own)
+    void buildDocSims() {
+        Metrics.Timer timer = metrics.startPhase("buildDocSims");
+        CosineSimilarity cosine = new CosineSimilarity(docs, invertedIndex, magnitudes);
+        sims = newSimMatrix(D);
+        if (numThreads > 1) new ParallelSimBuilder(cosine, D, numThreads).buildSims(sims);
+        else cosine.buildSims(sims);
+        timer.stop();
+    }
+    // top numNeighbours neighbours per document, from the same sparse accumulation or among LSH candidates
+    private void buildKnnGraph() {
+        Metrics.Timer timer = metrics.startPhase("buildKnnGraph");
+        CosineSimilarity cosine = new CosineSimilarity(docs, invertedIndex, magnitudes);
+        if (signatureBits > 0) knnGraph = new SimHashLsh(docs, signatureBits, numBands).buildKnnGraph(cosine, numNeighbours);
+        else knnGraph = new KnnGraph(cosine, D, numNeighbours, numThreads);
+        timer.stop();
+    }
+    // copies every entry of from into to, of the same size: tile by tile into a TiledSimMatrix, row by row
+    // into a PackedSimMatrix and entry by entry otherwise; one pass, nothing recomputed
+    private static void copySims(SimMatrix from, SimMatrix to) {
+        int n = from.size();
+        if (to instanceof TiledSimMatrix) {
+            TiledSimMatrix tiled = (TiledSimMatrix) to;
+            int tileSize = tiled.getTileSize();
+            float[] tile = new float[tileSize * tileSize];
+            for (int a = 0; a < tiled.getNumTiles(); a++) {
+                for (int b = a; b < tiled.getNumTiles(); b++) {
+                    Arrays.fill(tile, 0); // entries past n stay 0
+                    for (int i = a * tileSize; i < Math.min(n, (a + 1) * tileSize); i++) {
+                        for (int j = b * tileSize; j < Math.min(n, (b + 1) * tileSize); j++) {
+                            tile[(i - a * tileSize) * tileSize + (j - b * tileSize)] = (float) from.get(i, j);
+                        }
+                    }
+                    tiled.putTile(a, b, tile);
+                }
             }
-            magnitudes[i] = Math.sqrt(sumSquares);
+            return;
         }
-        
-        sims = new double[D][D];
-        for (int i = 0; i < D; i++) {
-            for (int j = 0; j < D; j++) {
-                if (sims[i][j] != 0) continue; // already computed similarity, so continue
-                double dotProduct = 0;
-                double sim = 0;
-                for (int k = 0; k < W; k++) {
-                    dotProduct += (docs[i][k] * docs[j][k]);
+        float[] row = (to instanceof PackedSimMatrix) ? new float[n] : null;
+        for (int i = 0; i < n; i++) {
+            if (row != null) {
+                for (int j = i; j < n; j++) row[j - i] = (float) from.get(i, j);
+                ((PackedSimMatrix) to).setRow(i, i, row, 0, n - i);
+                continue;
+            }
+            for (int j = i; j < n; j++) to.set(i, j, from.get(i, j));
+        }
+    }
+    private SimMatrix newSimMatrix(int n) {
+        switch (storage) {
+            case DENSE:
+                return new DenseSimMatrix(n);
+            case DIRECT:
+                return new MappedSimMatrix(n);
+            case MAPPED:
+                try {
+                    return MappedSimMatrix.createTemp(n);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
-                sim = (dotProduct / magnitudes[i]) / magnitudes[j]; // magnitudes should never be zero
-                sims[i][j] = sim;
-                sims[j][i] = sim;
+            case TILED:
+                try {
+                    int tileSize = TiledSimMatrix.tileSizeFor(OutOfCoreSimBuilder.DEFAULT_HEAP_BUDGET);
+                    return TiledSimMatrix.createTemp(n, tileSize, (int) ((OutOfCoreSimBuilder.DEFAULT_HEAP_BUDGET / 2) / (4L * tileSize * tileSize)));
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            default:
+                return new PackedSimMatrix(n);
+        }
+    }
+    
+    /* Appending documents */
+    
+    // appends the documents of a docword file (docIDs from 1, same vocabulary) after the current ones;
+    // returns the ID of the first of them
+    public int appendDocwordFile(String filename) {
+        Metrics.Timer timer = metrics.startPhase("parse");
+        SparseDocs newDocs;
+        try {
+            newDocs = parser.parseDocword(filename);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            timer.stop();
+        }
+        return appendDocuments(newDocs);
+    }
+    // appends newDocs (same vocabulary) as documents D.., computing only their similarities with the
+    // existing documents and each other: the matrix becomes an AppendableSimMatrix around the one built so
+    // far, which is never moved or recomputed. Returns the ID of the first new document. Needs the documents
+    // and the full matrix, so not available out of core or in k-nearest-neighbour graph mode
+    public int appendDocuments(SparseDocs newDocs) {
+        if (docs == null || sims == null) throw new IllegalStateException("appending needs the documents and the full similarity matrix");
+        Metrics.Timer timer = metrics.startPhase("append");
+        int firstDoc = D;
+        docs.append(newDocs);
+        numAppended += newDocs.getNumDocs();
+        D = docs.getNumDocs();
+        NNZ = docs.getNNZ();
+        if (D > magnitudes.length) magnitudes = Arrays.copyOf(magnitudes, Math.max(D, 2 * magnitudes.length));
+        for (int i = firstDoc; i < D; i++) {
+            magnitudes[i] = docs.magnitude(i);
+        }
+        if (!(sims instanceof AppendableSimMatrix)) sims = new AppendableSimMatrix(sims);
+        AppendableSimMatrix appendable = (AppendableSimMatrix) sims;
+        CosineSimilarity cosine = new CosineSimilarity(docs, invertedIndex, magnitudes);
+        long[] dots = new long[D];
+        for (int i = firstDoc; i < D; i++) {
+            // indexed documents through their postings, documents appended since the index was built pair by pair
+            cosine.accumulateRow(i, 0, indexedDocs, dots);
+            for (int j = indexedDocs; j <= i; j++) dots[j] = (long) docs.dot(i, j);
+            float[] row = new float[i + 1];
+            for (int j = 0; j <= i; j++) {
+                row[j] = (float) cosine.sim(j, i, dots[j]); // same operand order as buildSims, so the same floats
+                dots[j] = 0;
             }
+            appendable.appendRow(row);
         }
+        // the index is rebuilt once the documents it misses hold a quarter as many postings as it has,
+        // which spreads its O(NNZ) cost over the appends in between
+        int indexedNNZ = docs.rowStart(indexedDocs);
+        if (NNZ - indexedNNZ > indexedNNZ / 4) buildInvertedIndex();
+        metrics.count(Metrics.Counter.DOCS_APPENDED, D - firstDoc);
+        timer.stop();
+        return firstDoc;
+    }
+    // copies an appended matrix into one matrix of the configured storage, e.g. before a full re-cluster,
+    // so the storage's fast paths (the packed kernels, the tile cache) apply to all of it again; one pass
+    // over the entries, none is recomputed
+    public void compactSims() {
+        if (!(sims instanceof AppendableSimMatrix)) return;
+        Metrics.Timer timer = metrics.startPhase("compactSims");
+        SimMatrix compact = newSimMatrix(D);
+        copySims(sims, compact);
+        sims = compact;
+        timer.stop();
+    }
+    
+    /* Snapshots */
+    
+    // writes the document vectors, vocab, magnitudes and (optionally) similarity matrix for later runs, with
+    // this run's storage and graph parameters; not once documents have been appended, since the snapshot is
+    // keyed on the source files
+    public void writeSnapshot(String filename, boolean includeSims) {
+        if (numAppended > 0) {
+            throw new IllegalStateException(numAppended + " appended documents are not in " + docwordFilename + ", so a snapshot would not match it");
+        }
+        Metrics.Timer timer = metrics.startPhase("writeSnapshot");
+        try {
+            CorpusSnapshot.write(new File(filename), new File(docwordFilename), new File(vocabFilename), docs, magnitudes, vocab,
+                                 includeSims ? sims : null, storage, numNeighbours, signatureBits, numBands);
+        }
+        catch (Exception e) {
+            e.printStackTrace(System.out);
+        }
+        timer.stop();
     }
     
     /* Getters */
     
-    public int[][] getDocs() {
+    public SparseDocs getDocs() {
         return docs;
     }
+    public int getNumDocs() {
+        return D;
+    }
+    public int getNumWords() {
+        return W;
+    }
+    public double[] getMagnitudes() {
+        return magnitudes;
+    }
     public String[] getVocab() {
         return vocab;
     }
-    /*
-    public ArrayList<ArrayList<Integer>> getInvertedIndex() {
+    public int getNumAppended() {
+        return numAppended;
+    }
+    public boolean isLoadedFromSnapshot() {
+        return loadedFromSnapshot;
+    }
+    public CorpusParser getParser() {
+        return parser;
+    }
+    public InvertedIndex getInvertedIndex() {
+        if (docs != null && indexedDocs < D) buildInvertedIndex(); // catch up with appended documents
         return invertedIndex;
     }
-    */
-    public double[][] getSims() {
+    public SimMatrix getSims() {
         return sims;
     }
+    public KnnGraph getKnnGraph() {
+        return knnGraph;
+    }
+    public Metrics getMetrics() {
+        return metrics;
+    }
     
     /* Debugging / print methods */
     
@@ -114,8 +386,11 @@ public class Data {
             System.out.println("-------");
             System.out.println("Document " + i + " vector:");
             System.out.print("{ ");
+            int k = docs.rowStart(i);
             for (int j = 0; j < W; j++) {
-                System.out.print(docs[i][j] + " ");
+                int count = 0;
+                if (k < docs.rowEnd(i) && docs.getWordIDs()[k] == j) count = docs.getCounts()[k++];
+                System.out.print(count + " ");
             }
             System.out.print(" }\n");
             System.out.println("-------");
@@ -125,54 +400,112 @@ public class Data {
     /* Utility methods */
     
     public double getAvgSim(ArrayList<Integer> cluster) {
-        double avgSim = 0;
-        for (int j = 0; j < cluster.size(); j++) {
-            int docJ = cluster.get(j);
-            for (int k = 0; k < cluster.size(); k++) {
+        return getAvgSim(toArray(cluster));
+    }
+    public double getAvgSim(int[] cluster) {
+        double avgSim = getSimSum(cluster);
+        avgSim /= ((double) cluster.length * cluster.length); // take average (i.e. normalize)
+        return avgSim;
+    }
+    public double getSimSum(ArrayList<Integer> cluster) {
+        return getSimSum(toArray(cluster));
+    }
+    // sum of the similarities of all (ordered) pairs of documents in the cluster, self-pairs included
+    public double getSimSum(int[] cluster) {
+        long n = cluster.length;
+        if (knnGraph != null) {
+            long numLookups = n; // self-similarities plus the members' edges
+            for (int doc : cluster) numLookups += knnGraph.rowEnd(doc) - knnGraph.rowStart(doc);
+            metrics.count(Metrics.Counter.SIM_LOOKUPS, numLookups);
+            return knnGraph.getSimSum(cluster);
+        }
+        if (sims instanceof TiledSimMatrix) {
+            metrics.count(Metrics.Counter.SIM_LOOKUPS, n * (n + 1) / 2);
+            return ((TiledSimMatrix) sims).getSimSum(cluster); // tile by tile
+        }
+        if (sims instanceof PackedSimMatrix) {
+            metrics.count(Metrics.Counter.SIM_LOOKUPS, n * (n + 1) / 2);
+            return ((PackedSimMatrix) sims).getSimSum(cluster); // one half, row by row through SimKernels
+        }
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, n * n);
+        double simSum = 0;
+        for (int j = 0; j < cluster.length; j++) {
+            int docJ = cluster[j];
+            for (int k = 0; k < cluster.length; k++) {
                 //if (j == k) continue;
-                int docK = cluster.get(k);
-                avgSim += sims[docJ][docK];
+                simSum += sims.get(docJ, cluster[k]);
             }
         }
-        avgSim /= (cluster.size() * cluster.size()); // take average (i.e. normalize)
-        return avgSim;
+        return simSum;
+    }
+    // unboxes a cluster once rather than on every one of its n^2 similarity lookups
+    private static int[] toArray(ArrayList<Integer> cluster) {
+        int[] members = new int[cluster.size()];
+        for (int j = 0; j < members.length; j++) members[j] = cluster.get(j);
+        return members;
     }
     // returns <positive agreement, negative agreement>
     public ArrayList<Double> clusteringAgreement(ArrayList<ArrayList<Integer>> cOne, ArrayList<ArrayList<Integer>> cTwo) {
         if (cOne.size() != cTwo.size()) return null; // clusterings must be same size
-        int numClusters = cOne.size();
-        int numPairsPosAgree = 0;
-        int numPairsNegAgree = 0;
-        double numPairsTotal = D * D;
-        for (int i = 0; i < D; i++) {
-            for (int j = 0; j < D; j++) {
-                int iIndexOne = -1;
-                int jIndexOne = -1;
-                int iIndexTwo = -1;
-                int jIndexTwo = -1;
-                for (int k = 0; k < numClusters; k++) {
-                    if (iIndexOne == -1 && jIndexOne == -1) {
-                        iIndexOne = cOne.get(k).indexOf(i);
-                        jIndexOne = cOne.get(k).indexOf(j);
-                    }
-                    if (iIndexTwo == -1 && jIndexTwo == -1) {
-                        iIndexTwo = cTwo.get(k).indexOf(i);
-                        jIndexTwo = cTwo.get(k).indexOf(j);
-                    }
-                }
-                boolean cOneDiff = ((iIndexOne > -1 && jIndexOne == -1) || (iIndexOne == -1 && jIndexOne > -1));
-                boolean cTwoDiff = ((iIndexTwo > -1 && jIndexTwo == -1) || (iIndexTwo == -1 && jIndexTwo > -1));
-                boolean cOneSame = ((iIndexOne > -1 && jIndexOne > -1) || (iIndexOne == -1 && jIndexOne == -1));
-                boolean cTwoSame = ((iIndexTwo > -1 && jIndexTwo > -1) || (iIndexTwo == -1 && jIndexTwo == -1));
-                if (cOneSame && cTwoSame) numPairsPosAgree += 1;
-                else if (cOneDiff && cTwoDiff) numPairsNegAgree += 1;
-            }
-        }
+        ClusteringComparison comparison = compareClusterings(cOne, cTwo);
         ArrayList<Double> agreements = new ArrayList<Double>(2);
-        agreements.add(numPairsPosAgree / numPairsTotal);
-        agreements.add(numPairsNegAgree / numPairsTotal);
+        agreements.add(comparison.getPositiveAgreement());
+        agreements.add(comparison.getNegativeAgreement());
         return agreements;
     }
+    // agreement, Rand index, adjusted Rand index and NMI from one contingency table
+    public ClusteringComparison compareClusterings(ArrayList<ArrayList<Integer>> cOne, ArrayList<ArrayList<Integer>> cTwo) {
+        Metrics.Timer timer = metrics.startPhase("agreement");
+        ClusteringComparison comparison = new ClusteringComparison(D, cOne, cTwo);
+        timer.stop();
+        return comparison;
+    }
+    public ClusteringComparison compareClusterings(Partition pOne, Partition pTwo) {
+        Metrics.Timer timer = metrics.startPhase("agreement");
+        ClusteringComparison comparison = new ClusteringComparison(pOne, pTwo);
+        timer.stop();
+        return comparison;
+    }
+    
+    /* Results */
+    
+    // both clusterings, their average cluster similarities and their agreement, as main prints them
+    public void printResults(PrintStream out, HAC hac, HDC hdc) {
+        // print clusters for HAC and HDC
+        out.println("-------");
+        hac.printClusters(out);
+        out.println("-------");
+        hdc.printClusters(out);
+        out.println("-------");
+        
+        ArrayList<Double> hacAvgClusterSims = hac.getAvgClusterSims();
+        ArrayList<Double> hdcAvgClusterSims = hdc.getAvgClusterSims();
+        double hacAvgSim = 0;
+        double hdcAvgSim = 0;
+        for (int i = 0; i < hacAvgClusterSims.size(); i++) {
+            hacAvgSim += hacAvgClusterSims.get(i);
+        }
+        for (int i = 0; i < hdcAvgClusterSims.size(); i++) {
+            hdcAvgSim += hdcAvgClusterSims.get(i);
+        }
+        hacAvgSim /= hacAvgClusterSims.size();
+        hdcAvgSim /= hdcAvgClusterSims.size();
+        out.println("HAC average of average cluster similarities: " + hacAvgSim);
+        out.println("HDC average of average cluster similarities: " + hdcAvgSim);
+        out.println("HDC seed: " + hdc.getSeed());
+        ClusteringComparison comparison = compareClusterings(hac.getPartition(), hdc.getPartition());
+        double posAgreement = comparison.getPositiveAgreement();
+        double negAgreement = comparison.getNegativeAgreement();
+        double agreement = posAgreement + negAgreement;
+        double disagreement = 1 - agreement;
+        out.println("Clustering positive agreement: " + posAgreement);
+        out.println("Clustering negative agreement: " + negAgreement);
+        out.println("Clustering agreement composite: " + agreement);
+        out.println("Clustering disagreement: " + disagreement);
+        out.println("Rand index: " + comparison.getRandIndex());
+        out.println("Adjusted Rand index: " + comparison.getAdjustedRandIndex());
+        out.println("Normalized mutual information: " + comparison.getNormalizedMutualInformation());
+    }
     
     /* Testing */
     
@@ -191,47 +524,51 @@ public class Data {
         int numClusters;
         int numIterations;
         boolean normalize;
+        int numThreads = 1;
+        SimMatrix.Storage storage = SimMatrix.Storage.DENSE;
+        long seed = System.nanoTime();
+        int numNeighbours = 0;
         if (useArgs) {
             numClusters = Integer.parseInt(args[0]);
             numIterations = Integer.parseInt(args[1]); 
             normalize = Boolean.parseBoolean(args[2]);
+            if (args.length > 3) numThreads = Integer.parseInt(args[3]);
+            if (args.length > 4) storage = SimMatrix.Storage.valueOf(args[4].toUpperCase());
+            if (args.length > 5) seed = Long.parseLong(args[5]);
+            if (args.length > 6) numNeighbours = Integer.parseInt(args[6]);
         }
         else {
             numClusters = 100;
             numIterations = 5;
             normalize = true;
         }
-        Data d = new Data("docword.nips.txt", "vocab.nips.txt");
+        // -Dsnapshot=<file> loads the corpus from that snapshot, or writes one there; by default nothing is written
+        String snapshotFilename = System.getProperty("snapshot");
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", numThreads, storage, snapshotFilename, numNeighbours);
+        if (d.isLoadedFromSnapshot()) System.out.println("Loaded corpus from " + snapshotFilename);
+        else {
+            CorpusParser parser = d.getParser();
+            System.out.println("Parsed " + parser.getBytesParsed() + " bytes in " + (parser.getParseNanos() / 1000000) + " ms (" + 
+                               parser.getMegabytesPerSecond() + " MB/s)");
+        }
         HAC hac = new HAC(d, numClusters);
-        HDC hdc = new HDC(d, numClusters, numIterations, normalize);
+        HDC hdc = new HDC(d, numClusters, numIterations, normalize, seed, numThreads);
         
-        // print clusters for HAC and HDC
-        System.out.println("-------");
-        hac.printClusters();
-        System.out.println("-------");
-        hdc.printClusters();
-        System.out.println("-------");
+        d.printResults(System.out, hac, hdc);
         
-        ArrayList<Double> hacAvgClusterSims = hac.getAvgClusterSims();
-        ArrayList<Double> hdcAvgClusterSims = hdc.getAvgClusterSims();
-        double hacAvgSim = 0;
-        double hdcAvgSim = 0;
-        for (int i = 0; i < numClusters; i++) {
-            hacAvgSim += hacAvgClusterSims.get(i);
-            hdcAvgSim += hdcAvgClusterSims.get(i);
-        }
-        hacAvgSim /= numClusters;
-        hdcAvgSim /= numClusters;
-        System.out.println("HAC average of average cluster similarities: " + hacAvgSim);
-        System.out.println("HDC average of average cluster similarities: " + hdcAvgSim);
-        ArrayList<Double> agreements = d.clusteringAgreement(hac.getClusters(), hdc.getClusters());
-        double posAgreement = agreements.get(0);
-        double negAgreement = agreements.get(1);
-        double agreement = posAgreement + negAgreement;
-        double disagreement = 1 - agreement;
-        System.out.println("Clustering positive agreement: " + posAgreement);
-        System.out.println("Clustering negative agreement: " + negAgreement);
-        System.out.println("Clustering agreement composite: " + agreement);
-        System.out.println("Clustering disagreement: " + disagreement);
+        // phase times and counters, named like the cluster output (data_<k>_<iterations>_<normalize>)
+        Metrics metrics = d.getMetrics();
+        metrics.setInfo("numDocs", d.getNumDocs());
+        metrics.setInfo("numClusters", numClusters);
+        metrics.setInfo("numIterations", numIterations);
+        metrics.setInfo("normalize", normalize);
+        metrics.setInfo("numThreads", numThreads);
+        metrics.setInfo("storage", storage.toString());
+        metrics.setInfo("numNeighbours", numNeighbours);
+        metrics.setInfo("kernels", SimKernels.KERNELS.getName());
+        metrics.setInfo("seed", seed);
+        String metricsFilename = "data_" + numClusters + "_" + numIterations + "_" + normalize + "_metrics.json";
+        metrics.writeJson(metricsFilename);
+        System.out.println("Metrics written to " + metricsFilename);
     }
 }
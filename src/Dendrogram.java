@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* compact dendrogram of an HAC run, stored as parent/height arrays: nodes 0..N-1 are the
+ * documents and node N + m is the cluster created by merge m, so a node's parent always has
+ * a larger index. Flat clusterings for any k, or any similarity threshold, come from one
+ * O(N) pass over the nodes instead of re-running the agglomeration */
+public class Dendrogram {
+
+    private int N;
+    private int numMerges;
+    private int[] parents; // -1 for nodes not (yet) merged
+    private double[] heights; // similarity at which node N + m was created
+
+    public Dendrogram(int N, ArrayList<ArrayList<Integer>> merges, ArrayList<Double> mergeSims){
+        this.N = N;
+        numMerges = merges.size();
+        parents = new int[N + numMerges];
+        Arrays.fill(parents, -1);
+        heights = new double[numMerges];
+        // HAC merges cluster slots; slotNodes[s] is the node currently held by slot s
+        int[] slotNodes = new int[N];
+        for (int i = 0; i < N; i++) slotNodes[i] = i;
+        for (int m = 0; m < numMerges; m++) {
+            int to = merges.get(m).get(0);
+            int from = merges.get(m).get(1);
+            parents[slotNodes[to]] = N + m;
+            parents[slotNodes[from]] = N + m;
+            slotNodes[to] = N + m;
+            heights[m] = mergeSims.get(m);
+        }
+    }
+
+    /* Getters */
+
+    public int getNumMerges() {
+        return numMerges;
+    }
+    public int[] getParents() {
+        return parents;
+    }
+    public double[] getHeights() {
+        return heights;
+    }
+
+    /* Cuts */
+
+    // cluster label of every document once the first numApplied merges are done; labels are
+    // numbered in order of each cluster's smallest document
+    public int[] getLabels(int numApplied) {
+        if (numApplied < 0 || numApplied > numMerges) {
+            throw new IllegalArgumentException(numApplied + " merges requested but only " + numMerges + " recorded");
+        }
+        int numNodes = N + numApplied;
+        // a node's top-most applied ancestor, found top-down since parents have larger indices
+        int[] roots = new int[numNodes];
+        for (int node = numNodes - 1; node >= 0; node--) {
+            int parent = parents[node];
+            roots[node] = (parent >= 0 && parent < numNodes) ? roots[parent] : node;
+        }
+        int[] rootLabels = new int[numNodes];
+        Arrays.fill(rootLabels, -1);
+        int[] labels = new int[N];
+        int numLabels = 0;
+        for (int i = 0; i < N; i++) {
+            int root = roots[i];
+            if (rootLabels[root] == -1) rootLabels[root] = numLabels++;
+            labels[i] = rootLabels[root];
+        }
+        return labels;
+    }
+    // flat clustering with k clusters, in the same shape and order as HAC.getClusters()
+    public ArrayList<ArrayList<Integer>> cut(int k) {
+        return toClusters(getLabels(N - k));
+    }
+    // the same clustering as cut(k), as a Partition with cluster i the i-th of cut(k)
+    public Partition cutPartition(int k) {
+        return Partition.fromLabels(getLabels(N - k), k);
+    }
+    // flat clustering keeping the merges made at similarity >= threshold; complete-link merge
+    // similarities never increase, so these are a prefix of the merges
+    public ArrayList<ArrayList<Integer>> cutAtSimilarity(double threshold) {
+        int numApplied = 0;
+        while (numApplied < numMerges && heights[numApplied] >= threshold) numApplied++;
+        return toClusters(getLabels(numApplied));
+    }
+    private static ArrayList<ArrayList<Integer>> toClusters(int[] labels) {
+        ArrayList<ArrayList<Integer>> clusters = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == clusters.size()) clusters.add(new ArrayList<Integer>());
+            clusters.get(labels[i]).add(i);
+        }
+        return clusters;
+    }
+}
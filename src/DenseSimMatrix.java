@@ -0,0 +1,31 @@
+import java.util.Arrays;
+
+/* full double[n][n] similarity matrix, as originally used by Data and HAC */
+public class DenseSimMatrix implements SimMatrix {
+
+    private int n;
+    private double[][] sims;
+
+    public DenseSimMatrix(int n){
+        this.n = n;
+        sims = new double[n][n];
+    }
+
+    public int size() {
+        return n;
+    }
+    public double get(int i, int j) {
+        return sims[i][j];
+    }
+    public void set(int i, int j, double sim) {
+        sims[i][j] = sim;
+        sims[j][i] = sim;
+    }
+    public SimMatrix copy() {
+        DenseSimMatrix copy = new DenseSimMatrix(n);
+        for (int i = 0; i < n; i++) {
+            copy.sims[i] = Arrays.copyOf(sims[i], n);
+        }
+        return copy;
+    }
+}
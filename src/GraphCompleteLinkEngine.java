@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/* complete-link merge engine over a KnnGraph, for corpora too large for the full matrix.
+ * With missing edges counting as similarity 0, the complete-link similarity of clusters A
+ * and B is the smallest edge between them if all |A| * |B| member pairs are edges, and 0
+ * otherwise. Each live cluster therefore keeps, per adjacent cluster, the number of edges
+ * between the two and their smallest similarity, in rows sorted by cluster; a merge combines
+ * the two rows and patches the rows of their neighbours, so memory stays O(edges).
+ *
+ * Fully connected pairs go into one global max-heap (sim descending, then i, then j), and
+ * entries are invalidated lazily as in CompleteLinkEngine. Once no fully connected pair is
+ * left every remaining similarity is 0, so the two smallest live clusters are merged, which
+ * is the pair the full matrix would have picked */
+public class GraphCompleteLinkEngine implements MergeEngine {
+
+    private int N;
+    private int numActive;
+    private int[] sizes; // 0 once a cluster has been merged away
+    private int[][] adjacent; // adjacent clusters of each live cluster, sorted
+    private long[][] edgeCounts; // edges between the cluster and each adjacent cluster
+    private double[][] minSims; // smallest of those edges
+    private int[] degrees; // used length of the three rows
+    private PairHeap candidates; // fully connected pairs
+    private int firstActive; // smallest live cluster; merges go into the smaller slot, so it never dies
+    private int zeroCursor; // every cluster strictly between firstActive and this one is dead
+    private long numLookups;
+
+    public GraphCompleteLinkEngine(KnnGraph graph){
+        N = graph.size();
+        numActive = N;
+        sizes = new int[N];
+        Arrays.fill(sizes, 1);
+        adjacent = new int[N][];
+        edgeCounts = new long[N][];
+        minSims = new double[N][];
+        degrees = new int[N];
+        candidates = new PairHeap(graph.getNumEdges() / 2 + 1);
+        int[] neighbours = graph.getNeighbours();
+        float[] sims = graph.getSims();
+        for (int i = 0; i < N; i++) {
+            int start = graph.rowStart(i);
+            int degree = graph.rowEnd(i) - start;
+            adjacent[i] = Arrays.copyOfRange(neighbours, start, start + degree);
+            edgeCounts[i] = new long[degree];
+            Arrays.fill(edgeCounts[i], 1);
+            minSims[i] = new double[degree];
+            for (int e = 0; e < degree; e++) {
+                minSims[i][e] = sims[start + e];
+                if (i < adjacent[i][e]) candidates.append(minSims[i][e], i, adjacent[i][e]);
+            }
+            degrees[i] = degree;
+        }
+        candidates.heapify();
+    }
+
+    // the smallest edge if the clusters are fully connected, else 0; not counted here, nextMerge
+    // adds its reads (and the caller's read of the pair it returns) to numLookups in bulk
+    public double getSim(int i, int j) {
+        int e = Arrays.binarySearch(adjacent[i], 0, degrees[i], j);
+        if (e < 0 || edgeCounts[i][e] != (long) sizes[i] * sizes[j]) return 0;
+        return minSims[i][e];
+    }
+    public int getNumActive() {
+        return numActive;
+    }
+    public long getNumLookups() {
+        return numLookups;
+    }
+    public int[] nextMerge() {
+        if (numActive < 2) return null;
+        long checks = 1; // the caller reads the returned pair's similarity back
+        while (candidates.size > 0) {
+            int i = candidates.topI();
+            int j = candidates.topJ();
+            if (sizes[i] > 0 && sizes[j] > 0) {
+                checks++;
+                if (getSim(i, j) == candidates.topSim() && candidates.topSim() > 0) {
+                    numLookups += checks;
+                    return new int[] { i, j };
+                }
+            }
+            candidates.pop();
+        }
+        numLookups += checks;
+        // nothing fully connected is left: all similarities are 0
+        while (sizes[firstActive] == 0) firstActive++;
+        zeroCursor = Math.max(zeroCursor, firstActive + 1);
+        while (sizes[zeroCursor] == 0) zeroCursor++;
+        return new int[] { firstActive, zeroCursor };
+    }
+    public void merge(int to, int from) {
+        // combine the two rows, dropping to and from themselves
+        int degreeTo = degrees[to];
+        int degreeFrom = degrees[from];
+        int[] mergedAdjacent = new int[degreeTo + degreeFrom];
+        long[] mergedCounts = new long[degreeTo + degreeFrom];
+        double[] mergedSims = new double[degreeTo + degreeFrom];
+        int n = 0;
+        for (int a = 0, b = 0; a < degreeTo || b < degreeFrom; ) {
+            int clusterA = (a < degreeTo) ? adjacent[to][a] : Integer.MAX_VALUE;
+            int clusterB = (b < degreeFrom) ? adjacent[from][b] : Integer.MAX_VALUE;
+            int cluster = Math.min(clusterA, clusterB);
+            long count = 0;
+            double sim = Double.POSITIVE_INFINITY;
+            if (clusterA == cluster) {
+                count += edgeCounts[to][a];
+                sim = Math.min(sim, minSims[to][a]);
+                a++;
+            }
+            if (clusterB == cluster) {
+                count += edgeCounts[from][b];
+                sim = Math.min(sim, minSims[from][b]);
+                b++;
+            }
+            if (cluster == to || cluster == from) continue;
+            mergedAdjacent[n] = cluster;
+            mergedCounts[n] = count;
+            mergedSims[n] = sim;
+            n++;
+        }
+        sizes[to] += sizes[from];
+        sizes[from] = 0;
+        adjacent[from] = null;
+        edgeCounts[from] = null;
+        minSims[from] = null;
+        degrees[from] = 0;
+        numActive -= 1;
+        adjacent[to] = Arrays.copyOf(mergedAdjacent, n);
+        edgeCounts[to] = Arrays.copyOf(mergedCounts, n);
+        minSims[to] = Arrays.copyOf(mergedSims, n);
+        degrees[to] = n;
+        for (int e = 0; e < n; e++) {
+            int cluster = mergedAdjacent[e];
+            updateRow(cluster, to, from, mergedCounts[e], mergedSims[e]);
+            if (mergedCounts[e] == (long) sizes[to] * sizes[cluster]) {
+                candidates.push(mergedSims[e], Math.min(to, cluster), Math.max(to, cluster));
+            }
+        }
+    }
+    // in the row of cluster c, drops the entry of from and sets the entry of to
+    private void updateRow(int c, int to, int from, long count, double sim) {
+        int degree = degrees[c];
+        int e = Arrays.binarySearch(adjacent[c], 0, degree, from);
+        if (e >= 0) {
+            System.arraycopy(adjacent[c], e + 1, adjacent[c], e, degree - e - 1);
+            System.arraycopy(edgeCounts[c], e + 1, edgeCounts[c], e, degree - e - 1);
+            System.arraycopy(minSims[c], e + 1, minSims[c], e, degree - e - 1);
+            degree--;
+        }
+        e = Arrays.binarySearch(adjacent[c], 0, degree, to);
+        if (e < 0) {
+            e = -e - 1;
+            if (degree == adjacent[c].length) {
+                int capacity = 2 * degree + 1;
+                adjacent[c] = Arrays.copyOf(adjacent[c], capacity);
+                edgeCounts[c] = Arrays.copyOf(edgeCounts[c], capacity);
+                minSims[c] = Arrays.copyOf(minSims[c], capacity);
+            }
+            System.arraycopy(adjacent[c], e, adjacent[c], e + 1, degree - e);
+            System.arraycopy(edgeCounts[c], e, edgeCounts[c], e + 1, degree - e);
+            System.arraycopy(minSims[c], e, minSims[c], e + 1, degree - e);
+            adjacent[c][e] = to;
+            degree++;
+        }
+        edgeCounts[c][e] = count;
+        minSims[c][e] = sim;
+        degrees[c] = degree;
+    }
+
+    // binary max-heap of (sim, i, j) ordered by sim descending, then i and j ascending
+    private static class PairHeap {
+        private double[] heapSims;
+        private int[] is;
+        private int[] js;
+        private int size;
+
+        PairHeap(int capacity) {
+            heapSims = new double[capacity];
+            is = new int[capacity];
+            js = new int[capacity];
+        }
+        double topSim() {
+            return heapSims[0];
+        }
+        int topI() {
+            return is[0];
+        }
+        int topJ() {
+            return js[0];
+        }
+        private boolean before(int a, int b) {
+            if (heapSims[a] != heapSims[b]) return heapSims[a] > heapSims[b];
+            if (is[a] != is[b]) return is[a] < is[b];
+            return js[a] < js[b];
+        }
+        void append(double sim, int i, int j) {
+            if (size == heapSims.length) {
+                heapSims = Arrays.copyOf(heapSims, 2 * size);
+                is = Arrays.copyOf(is, 2 * size);
+                js = Arrays.copyOf(js, 2 * size);
+            }
+            heapSims[size] = sim;
+            is[size] = i;
+            js[size] = j;
+            size++;
+        }
+        void push(double sim, int i, int j) {
+            append(sim, i, j);
+            siftUp(size - 1);
+        }
+        void pop() {
+            size--;
+            swap(0, size);
+            siftDown(0);
+        }
+        void heapify() {
+            for (int k = size / 2 - 1; k >= 0; k--) siftDown(k);
+        }
+        private void siftUp(int k) {
+            while (k > 0) {
+                int parent = (k - 1) / 2;
+                if (!before(k, parent)) return;
+                swap(k, parent);
+                k = parent;
+            }
+        }
+        private void siftDown(int k) {
+            while (true) {
+                int child = 2 * k + 1;
+                if (child >= size) return;
+                if (child + 1 < size && before(child + 1, child)) child++;
+                if (!before(child, k)) return;
+                swap(k, child);
+                k = child;
+            }
+        }
+        private void swap(int a, int b) {
+            double sim = heapSims[a];
+            heapSims[a] = heapSims[b];
+            heapSims[b] = sim;
+            int i = is[a];
+            is[a] = is[b];
+            is[b] = i;
+            int j = js[a];
+            js[a] = js[b];
+            js[b] = j;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/* split evaluator over a KnnGraph: the similarity sums of a split only need the edges inside
+ * the cluster (missing pairs are 0), so each trial is one O(edges) pass over the members' rows
+ * instead of a pairwise pass over the smaller half */
+public class GraphSplitEvaluator implements SplitEvaluator {
+
+    private KnnGraph graph;
+    private Partition partition;
+    private int cluster;
+    private int[] members;
+    private int[] positions; // position in members by document ID; only valid for members
+    private double totalSum;
+    private long lookupsPerPass; // self-similarities plus the edges of the members' rows
+    private LongAdder numLookups = new LongAdder();
+
+    // positions is an N-length scratch array owned by the caller, which must not change it (or
+    // the partition) while this evaluator is in use
+    public GraphSplitEvaluator(KnnGraph graph, Partition partition, int cluster, int[] members, int[] positions){
+        this.graph = graph;
+        this.partition = partition;
+        this.cluster = cluster;
+        this.members = members;
+        this.positions = positions;
+        for (int p = 0; p < members.length; p++) positions[members[p]] = p;
+        int[] neighbours = graph.getNeighbours();
+        float[] sims = graph.getSims();
+        for (int doc : members) {
+            lookupsPerPass += 1 + graph.rowEnd(doc) - graph.rowStart(doc);
+            totalSum += graph.getSelfSim(doc);
+            for (int e = graph.rowStart(doc); e < graph.rowEnd(doc); e++) {
+                if (partition.getLabel(neighbours[e]) == cluster) totalSum += sims[e];
+            }
+        }
+        numLookups.add(lookupsPerPass);
+    }
+
+    public double getTotalSum() {
+        return totalSum;
+    }
+    public double evaluate(boolean[] inSecond, int sizeTwo, double[] simSums) {
+        int[] neighbours = graph.getNeighbours();
+        float[] sims = graph.getSims();
+        double intraOne = 0;
+        double intraTwo = 0;
+        double cutSum = 0;
+        for (int p = 0; p < members.length; p++) {
+            int doc = members[p];
+            boolean second = inSecond[p];
+            double sameSide = graph.getSelfSim(doc);
+            for (int e = graph.rowStart(doc); e < graph.rowEnd(doc); e++) {
+                int other = neighbours[e];
+                if (partition.getLabel(other) != cluster) continue;
+                if (inSecond[positions[other]] == second) sameSide += sims[e];
+                else if (!second) cutSum += sims[e]; // each cut pair once, from its first-half end
+            }
+            if (second) intraTwo += sameSide;
+            else intraOne += sameSide;
+        }
+        numLookups.add(lookupsPerPass);
+        simSums[0] = intraOne;
+        simSums[1] = intraTwo;
+        return cutSum;
+    }
+    public long getNumLookups() {
+        return numLookups.sum();
+    }
+}
@@ -1,8 +1,7 @@
 import java.io.FileReader;
+import java.io.PrintStream;
 import java.util.Scanner;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 
 /* this HAC implementation uses the complete-link similarity measure */
 public class HAC {
@@ -10,65 +9,74 @@ public class HAC {
     private Data d;
     private int N;
     private int numClusters;
-    private double[][] docSims; // initial document similarities
-    private double[][] clusterSims; // similarity matrix C
-    private ArrayList<ArrayList<Integer>> clusters;
+    private MergeEngine engine; // complete-link similarities between clusters plus the merge queue(s)
+    private Partition partition; // cluster slots 0..N-1; a merge empties the from slot
+    private ArrayList<ArrayList<Integer>> clusters; // sorted nonempty clusters for getClusters()
     private ArrayList<ArrayList<Integer>> merges; // rows ordered by temporal order of merges
     private ArrayList<Double> mergeSims; // similarities of clusters merged during each merge step
     private ArrayList<Double> avgClusterSims;
+    private Dendrogram dendrogram;
     
     public HAC(Data d, int numClusters){
+        this(d, numClusters, false);
+    }
+    // with fullHierarchy, merging continues to a single root so the dendrogram can be cut at any k;
+    // getClusters() still returns the numClusters clustering
+    public HAC(Data d, int numClusters, boolean fullHierarchy){
         this.d = d;
-        N = d.getDocs().length;
-        docSims = d.getSims();
-        clusterSims = new double[N][N];
-        clusters = new ArrayList<ArrayList<Integer>>(N); // start with N clusters
+        N = d.getNumDocs();
+        Metrics metrics = d.getMetrics();
+        Metrics.Timer timer = metrics.startPhase("hac");
+        // in k-nearest-neighbour graph mode there is no full matrix; missing edges count as similarity 0
+        if (d.getKnnGraph() != null) engine = new GraphCompleteLinkEngine(d.getKnnGraph());
+        else engine = new CompleteLinkEngine(d.getSims());
+        partition = Partition.singletons(N); // start with N clusters
         merges = new ArrayList<ArrayList<Integer>>();
         mergeSims = new ArrayList<Double>();
         avgClusterSims = new ArrayList<Double>();
         this.numClusters = N;
-        for (int i = 0; i < N; i++) {
-            // initialize singleton clusters
-            clusters.add(new ArrayList<Integer>()); 
-            clusters.get(i).add(i);
-            clusterSims[i] = Arrays.copyOf(docSims[i], N); // make a copy so we don't mess up original doc sims
-        }
         
-        // do cluster merging until there are numClusters left
-        while (this.numClusters > numClusters) {
+        // do cluster merging until there are numClusters (or, for the full hierarchy, one) left
+        int numClustersLeft = fullHierarchy ? 1 : numClusters;
+        while (this.numClusters > numClustersLeft) {
             ArrayList<Integer> indices = identifyMerge();
             merge(indices);
             updateSims(indices);
         }
-        // sort each cluster, remove empty clusters, and compute average cluster similarities
-        ArrayList<ArrayList<Integer>> nonEmptyClusters = new ArrayList<ArrayList<Integer>>(numClusters);
-        for (ArrayList<Integer> cluster : clusters) {
-            if (cluster.size() > 0) {
-                Collections.sort(cluster);
-                nonEmptyClusters.add(cluster);
-                avgClusterSims.add(d.getAvgSim(cluster));
-            }
+        metrics.count(Metrics.Counter.HAC_MERGES, merges.size());
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, engine.getNumLookups());
+        dendrogram = new Dendrogram(N, merges, mergeSims);
+        if (fullHierarchy) partition = dendrogram.cutPartition(numClusters);
+        computeClusters();
+        timer.stop();
+    }
+    // the numClusters clustering of a full-hierarchy run, cut from its dendrogram without merging again,
+    // so a sweep over k shares one run; the merges and dendrogram are the run's own
+    public HAC(HAC hierarchy, int numClusters){
+        d = hierarchy.d;
+        N = hierarchy.N;
+        this.numClusters = numClusters;
+        merges = hierarchy.merges;
+        mergeSims = hierarchy.mergeSims;
+        dendrogram = hierarchy.dendrogram;
+        avgClusterSims = new ArrayList<Double>();
+        partition = dendrogram.cutPartition(numClusters);
+        computeClusters();
+    }
+    // sort each cluster, skip empty clusters, and compute average cluster similarities
+    private void computeClusters() {
+        for (int i = 0; i < partition.getCapacity(); i++) {
+            if (partition.size(i) > 0) avgClusterSims.add(d.getAvgSim(partition.getSortedMembers(i)));
         }
-        clusters = nonEmptyClusters;
+        clusters = partition.toClusters();
     }
     private ArrayList<Integer> identifyMerge() {
         ArrayList<Integer> indices = new ArrayList<Integer>(2);
-        int iLargestSim = 0;
-        int jLargestSim = 1;
-        double largestSim = -1;
-        for (int i = 0; i < N; i++) {
-            for (int j = 0; j < N; j++) {
-                if (i == j) continue;
-                // tie-breaking: first spotted instance wins
-                if (clusterSims[i][j] > clusterSims[iLargestSim][jLargestSim]) {
-                    iLargestSim = i;
-                    jLargestSim = j;
-                    largestSim = clusterSims[i][j];
-                }
-            }
-        }
-        indices.add(iLargestSim);
-        indices.add(jLargestSim);
+        // tie-breaking: the first pair (i, j) in row-major order wins
+        int[] pair = engine.nextMerge();
+        double largestSim = engine.getSim(pair[0], pair[1]);
+        indices.add(pair[0]);
+        indices.add(pair[1]);
         mergeSims.add(largestSim);
         //System.out.println("about to merge clusters " + indices.get(0) + " and " + indices.get(1) + " with similarity score " + largestSim);
         return indices;
@@ -76,42 +84,23 @@ public class HAC {
     private void merge(ArrayList<Integer> indices) {
         int toIndex = indices.get(0);
         int fromIndex = indices.get(1);
-        ArrayList<Integer> to = clusters.get(toIndex);
-        ArrayList<Integer> from = clusters.get(fromIndex);
-        //System.out.println("to size: " + to.size() + " ; from size: " + from.size());
-        // do merge
-        while (from.size() > 0) {
-            to.add(from.remove(0));
-        }
-        //System.out.println("to size: " + to.size() + " ; from size: " + from.size());
+        //System.out.println("to size: " + partition.size(toIndex) + " ; from size: " + partition.size(fromIndex));
+        // do merge: from's member list is linked onto the end of to's
+        partition.merge(toIndex, fromIndex);
         // update merges data structure
         merges.add(indices);
         numClusters -= 1;
     }
     private void updateSims(ArrayList<Integer> indices) {
-        int toIndex = indices.get(0);
-        int fromIndex = indices.get(1);
-        // "zero out" (i.e. set to -1) similarities for clusters that no longer exist
-        for (int i = 0; i < N; i++) {
-            if (i == fromIndex) continue;
-            clusterSims[i][fromIndex] = -1;
-            clusterSims[fromIndex][i] = -1;
-        }
-        for (int i = 0; i < N; i++) {
-            if (i == toIndex) continue;
-            double smallestSim = 1; // complete-link similarity: want the smallest
-            for (int j = 0; j < clusters.get(toIndex).size(); j++) {
-                int docJ = clusters.get(toIndex).get(j);
-                for (int k = 0; k < clusters.get(i).size(); k++) { // won't run for empty clusters
-                    int docK = clusters.get(i).get(k);
-                    if (docSims[docJ][docK] < smallestSim) smallestSim = docSims[docJ][docK];
-                }
-            }
-            if (smallestSim == 1) smallestSim = -1; // should only happen for empty clusters
-            clusterSims[i][toIndex] = smallestSim;
-            clusterSims[toIndex][i] = smallestSim;
-            //System.out.println("smallest sim for " + i + " and " + toIndex + " is " + smallestSim);
-        }
+        engine.merge(indices.get(0), indices.get(1));
+    }
+    
+    /* Assigning new documents */
+    
+    // an assigner that places documents appended to d later into these clusters, updating getClusters(),
+    // getAvgClusterSims() and getPartition() in place until its drift calls for a new clustering
+    public ClusterAssigner newAssigner(ClusterAssigner.Linkage linkage, double driftThreshold) {
+        return new ClusterAssigner(d, partition, clusters, avgClusterSims, linkage, driftThreshold);
     }
     
     /* Getters */
@@ -119,6 +108,9 @@ public class HAC {
     public ArrayList<ArrayList<Integer>> getClusters() {
         return clusters;
     }
+    public Partition getPartition() {
+        return partition;
+    }
     public ArrayList<ArrayList<Integer>> getMerges() {
         return merges;
     }
@@ -128,16 +120,29 @@ public class HAC {
     public ArrayList<Double> getAvgClusterSims() {
         return avgClusterSims;
     }
+    public Dendrogram getDendrogram() {
+        return dendrogram;
+    }
     
     /* Debugging / print methods */
     
     public void printClusters() {
-        for (ArrayList<Integer> cluster : clusters) {
-            System.out.print("{ ");
+        printClusters(System.out);
+    }
+    public void printClusters(PrintStream out) {
+        printClusters(out, null);
+    }
+    // with a labeler, each cluster is preceded by its top terms in brackets
+    public void printClusters(PrintStream out, ClusterLabeler labeler) {
+        String[][] terms = (labeler == null) ? null : labeler.getTopTerms(clusters);
+        for (int c = 0; c < clusters.size(); c++) {
+            ArrayList<Integer> cluster = clusters.get(c);
+            if (terms != null) out.print("[" + String.join(" ", terms[c]) + "] ");
+            out.print("{ ");
             for (int i = 0; i < cluster.size(); i++) {
-                System.out.print(cluster.get(i) + " ");
+                out.print(cluster.get(i) + " ");
             }
-            System.out.print("}\n");
+            out.print("}\n");
         }
     }
     public void printMerges() {
@@ -150,9 +155,9 @@ public class HAC {
     /* Testing */
     
     public static void main(String[] args) {
-        Data d = new Data("docword.nips.txt", "vocab.nips.txt");
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", 1, SimMatrix.Storage.DENSE, System.getProperty("snapshot"));
         HAC h = new HAC(d, 10);
         //h.printMerges();
-        h.printClusters();
+        h.printClusters(System.out, new ClusterLabeler(d, 10, ClusterLabeler.Weighting.TF_IDF));
     }
 }
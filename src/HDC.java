@@ -1,7 +1,13 @@
 import java.io.FileReader;
+import java.io.PrintStream;
 import java.util.Scanner;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class HDC {
 
@@ -10,165 +16,258 @@ public class HDC {
     private int numClusters;
     private int numIterations;
     private boolean normalize;
-    private double[][] docSims; // initial document similarities
-    private ArrayList<ArrayList<Integer>> clusters;
+    private SimMatrix docSims; // initial document similarities
+    private KnnGraph graph; // used instead of docSims in k-nearest-neighbour graph mode
+    private int[] positions; // scratch for GraphSplitEvaluator
+    private Partition partition; // cluster slots 0..numClusters-1
+    private ArrayList<ArrayList<Integer>> clusters; // sorted copy of the partition for getClusters()
     private ArrayList<Double> avgClusterSims;
+    private double[] simSums; // running intra-cluster similarity sum of each cluster
+    private IndexedMinHeap splitQueue; // clusters keyed on average similarity
+    private long seed;
+    private SplittableRandom random; // source of one independent stream per split trial
+    private ExecutorService executor; // runs the split trials; null runs them in this thread
+    private Metrics metrics;
     
     public HDC(Data d, int numClusters, int numIterations, boolean normalize){
+        this(d, numClusters, numIterations, normalize, System.nanoTime(), 1);
+    }
+    public HDC(Data d, int numClusters, int numIterations, boolean normalize, long seed, int numThreads){
+        this(d, numClusters, numIterations, normalize, seed, (numThreads > 1) ? Executors.newFixedThreadPool(numThreads) : null, true);
+    }
+    // the clustering only depends on the seed, not on how many threads the executor has; on packed storage
+    // the split costs are summed by SimKernels, so it can differ between kernels (see there) on the same seed
+    public HDC(Data d, int numClusters, int numIterations, boolean normalize, long seed, ExecutorService executor){
+        this(d, numClusters, numIterations, normalize, seed, executor, false);
+    }
+    // ownsExecutor: the executor was made for this clustering and is shut down when it ends, normally or not
+    private HDC(Data d, int numClusters, int numIterations, boolean normalize, long seed, ExecutorService executor, boolean ownsExecutor){
         this.d = d;
-        N = d.getDocs().length;
+        N = d.getNumDocs();
         this.normalize = normalize;
+        this.seed = seed;
+        this.executor = executor;
+        random = new SplittableRandom(seed);
+        metrics = d.getMetrics();
+        try {
+            Metrics.Timer timer = metrics.startPhase("hdc");
         
-        docSims = d.getSims();
-        clusters = new ArrayList<ArrayList<Integer>>(numClusters);
-        avgClusterSims = new ArrayList<Double>();
-        for (int i = 0; i < numClusters; i++) {
-            // initialize empty clusters
-            clusters.add(new ArrayList<Integer>());
-        }
-        for (int i = 0; i < N; i++) {
-            // add all documents to 0th cluster to start
-            clusters.get(0).add(i);
-        }
-        this.numClusters = 1; // start with one big cluster
-        this.numIterations = numIterations;
+            docSims = d.getSims();
+            graph = d.getKnnGraph();
+            if (graph != null) positions = new int[N];
+            partition = new Partition(N, numClusters);
+            avgClusterSims = new ArrayList<Double>();
+            for (int i = 0; i < N; i++) {
+                // add all documents to 0th cluster to start
+                partition.add(0, i);
+            }
+            this.numClusters = 1; // start with one big cluster
+            this.numIterations = numIterations;
+            simSums = new double[numClusters];
+            splitQueue = new IndexedMinHeap(numClusters);
+            updateStats(0, d.getSimSum(partition.getMembers(0)));
         
-        // keep splitting clusters until desired number of clusters is reached
-        while (this.numClusters < numClusters) {
-            int clusterToSplit = chooseSplit();
-            //System.out.println("cluster to split " + clusterToSplit + " of size " + clusters.get(clusterToSplit).size());
-            split(clusterToSplit);
+            // keep splitting clusters until desired number of clusters is reached
+            while (this.numClusters < numClusters) {
+                int clusterToSplit = chooseSplit();
+                //System.out.println("cluster to split " + clusterToSplit + " of size " + partition.size(clusterToSplit));
+                split(clusterToSplit);
+            }
+            // sort each cluster and compute average sims
+            for (int i = 0; i < numClusters; i++) {
+                avgClusterSims.add(d.getAvgSim(partition.getSortedMembers(i)));
+            }
+            clusters = partition.toClusters();
+            timer.stop();
         }
-        // sort each cluster and compute average sims
-        for (ArrayList<Integer> cluster : clusters) {
-            Collections.sort(cluster);
-            avgClusterSims.add(d.getAvgSim(cluster));
+        finally {
+            if (ownsExecutor && executor != null) executor.shutdown();
         }
     }
     
-    // choose cluster to split: cluster with lowest average similarity
+    // choose cluster to split: cluster with lowest average similarity (ties go to the lowest index)
     private int chooseSplit() {
-        ArrayList<Double> avgSims = new ArrayList<Double>(numClusters);
-        for (int i = 0; i < numClusters; i++) {
-            avgSims.add(getAvgSim(clusters.get(i)));
-        }
-        int clusterToSplit = 0;
-        for (int i = 0; i < numClusters; i++) {
-            if (avgSims.get(i) < avgSims.get(clusterToSplit)) clusterToSplit = i;
-        }
-        //System.out.println("avg sim of cluster to split: " + avgSims.get(clusterToSplit));
+        int clusterToSplit = splitQueue.peek();
+        //System.out.println("avg sim of cluster to split: " + splitQueue.getKey(clusterToSplit));
         return clusterToSplit;
     }
-    private double getAvgSim(ArrayList<Integer> cluster) {
-        return d.getAvgSim(cluster);
+    // records a cluster's new similarity sum and requeues it by its average similarity
+    private void updateStats(int clusterIndex, double simSum) {
+        int size = partition.size(clusterIndex);
+        simSums[clusterIndex] = simSum;
+        splitQueue.put(clusterIndex, simSum / ((double) size * size));
     }
-    private double getIntraCost(ArrayList<Integer> cluster) {
-        return getAvgSim(cluster) * cluster.size() * cluster.size(); // un-normalize
+    // intra cost of a cluster from its similarity sum: the average similarity, un-normalized unless normalize
+    private double getIntraCost(int size, double simSum) {
+        double avgSim = simSum / ((double) size * size);
+        if (normalize) return avgSim;
+        return avgSim * size * size; // un-normalize
     }
     private void split(int clusterToSplit) {
-        ArrayList<Integer> cluster = clusters.get(clusterToSplit);
-        ArrayList<ArrayList<ArrayList<Integer>>> possibleSplits = new ArrayList<ArrayList<ArrayList<Integer>>>(numIterations);
-        ArrayList<Double> splitCosts = new ArrayList<Double>(numIterations);
+        int[] cluster = partition.getMembers(clusterToSplit);
+        SplitEvaluator evaluator; // shared by all trials
+        if (graph != null) evaluator = new GraphSplitEvaluator(graph, partition, clusterToSplit, cluster, positions);
+        else if (docSims instanceof TiledSimMatrix) evaluator = new TiledSplitEvaluator((TiledSimMatrix) docSims, cluster);
+        else evaluator = new MatrixSplitEvaluator(docSims, cluster);
+        // streams are split off in trial order, so each trial's centroids don't depend on scheduling
+        ArrayList<SplitTrial> trials = new ArrayList<SplitTrial>(numIterations);
         for (int i = 0; i < numIterations; i++) {
-            ArrayList<ArrayList<Integer>> possibleSplit = new ArrayList<ArrayList<Integer>>(2);
-            possibleSplit.add(new ArrayList<Integer>());
-            possibleSplit.add(new ArrayList<Integer>());
-            while (possibleSplit.get(0).size() == 0 || possibleSplit.get(1).size() == 0) {
-                int centroidOne = (int) (Math.random() * cluster.size());
-                int centroidTwo = (int) (Math.random() * cluster.size());
-                while (centroidOne == centroidTwo) { // we want the centroids to be distinct
-                    centroidTwo = (int) (Math.random() * cluster.size());
-                }
-                //System.out.println("centroids: " + centroidOne + ", " + centroidTwo);
-                possibleSplit = getSplit(cluster, centroidOne, centroidTwo);
-                //System.out.println("possible split sizes: " + possibleSplit.get(0).size() + ", " + possibleSplit.get(1).size());
-            }
-            possibleSplits.add(possibleSplit);
-            splitCosts.add(getSplitCost(possibleSplits.get(i)));
+            trials.add(new SplitTrial(cluster, evaluator, random.split()));
         }
+        runTrials(trials);
+        long numLookups = evaluator.getNumLookups();
+        for (SplitTrial trial : trials) numLookups += trial.numLookups;
+        metrics.count(Metrics.Counter.SIM_LOOKUPS, numLookups);
+        metrics.count(Metrics.Counter.HDC_TRIALS, numIterations);
+        metrics.count(Metrics.Counter.HDC_SPLITS, 1);
         int bestSplit = 0;
         for (int i = 0; i < numIterations; i++) {
-            if (splitCosts.get(i) < splitCosts.get(bestSplit)) bestSplit = i;
+            if (trials.get(i).splitCost < trials.get(bestSplit).splitCost) bestSplit = i;
         }
-        //System.out.println("best split cost is " + splitCosts.get(bestSplit));
+        //System.out.println("best split cost is " + trials.get(bestSplit).splitCost);
         // now that we have the best split, perform the actual split
-        clusters.set(numClusters, possibleSplits.get(bestSplit).get(1));
-        cluster.removeAll(possibleSplits.get(bestSplit).get(1));
+        partition.split(clusterToSplit, numClusters, trials.get(bestSplit).inSecond);
+        // only the two halves' statistics change
+        updateStats(clusterToSplit, trials.get(bestSplit).simSums[0]);
+        updateStats(numClusters, trials.get(bestSplit).simSums[1]);
         numClusters += 1;
         //System.out.println("split complete");
     }
-    private ArrayList<ArrayList<Integer>> getSplit(ArrayList<Integer> cluster, int centroidOne, int centroidTwo) {
-        ArrayList<ArrayList<Integer>> split = new ArrayList<ArrayList<Integer>>(2);
-        split.add(new ArrayList<Integer>());
-        split.add(new ArrayList<Integer>());
-        for (int i = 0; i < cluster.size(); i++) {
-            double simOne = docSims[cluster.get(i)][cluster.get(centroidOne)];
-            double simTwo = docSims[cluster.get(i)][cluster.get(centroidTwo)];
-            if (simOne > simTwo) split.get(0).add(cluster.get(i));
-            else split.get(1).add(cluster.get(i));
-        }
-        /*
-        System.out.println("printing split of sizes " + split.get(0).size() + " and " + split.get(1).size());
-        for (ArrayList<Integer> c : split) {
-            System.out.print("{ ");
-            for (Integer i : c) {
-                System.out.print(i + " ");
+    private void runTrials(ArrayList<SplitTrial> trials) {
+        try {
+            if (executor == null) {
+                for (SplitTrial trial : trials) trial.call();
             }
-            System.out.print("} \n");
-        }*/
-        return split;
-    }
-    private double getSplitCost(ArrayList<ArrayList<Integer>> split) {
-        double intraCostOne;
-        double intraCostTwo;
-        if (normalize) {
-            intraCostOne = getAvgSim(split.get(0));
-            intraCostTwo = getAvgSim(split.get(1));
+            else {
+                for (Future<Void> result : executor.invokeAll(trials)) result.get();
+            }
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
-        else {
-            intraCostOne = getIntraCost(split.get(0));
-            intraCostTwo = getIntraCost(split.get(1));
+    }
+    // one random pair of centroids and the resulting split of a cluster
+    private class SplitTrial implements Callable<Void> {
+        private int[] cluster;
+        private SplitEvaluator evaluator;
+        private SplittableRandom trialRandom;
+        private boolean[] inSecond; // by position in cluster: true for members of the second half
+        private double splitCost;
+        private double[] simSums = new double[2]; // similarity sums of the two halves
+        private long numLookups; // by getSplit
+        
+        SplitTrial(int[] cluster, SplitEvaluator evaluator, SplittableRandom trialRandom) {
+            this.cluster = cluster;
+            this.evaluator = evaluator;
+            this.trialRandom = trialRandom;
         }
-        double cutCost = 0; // cutcosts are the same since only splitting in two clusters
-        for (int i = 0; i < split.get(0).size(); i++) {
-            for (int j = 0; j < split.get(1).size(); j++) {
-                cutCost += docSims[split.get(0).get(i)][split.get(1).get(j)];
+        public Void call() {
+            int n = cluster.length;
+            inSecond = new boolean[n];
+            int sizeTwo = 0;
+            while (sizeTwo == 0 || sizeTwo == n) {
+                int centroidOne = trialRandom.nextInt(n);
+                int centroidTwo = trialRandom.nextInt(n);
+                while (centroidOne == centroidTwo) { // we want the centroids to be distinct
+                    centroidTwo = trialRandom.nextInt(n);
+                }
+                //System.out.println("centroids: " + centroidOne + ", " + centroidTwo);
+                sizeTwo = getSplit(cluster, centroidOne, centroidTwo, inSecond);
+                numLookups += 2L * n;
+                //System.out.println("possible split sizes: " + (n - sizeTwo) + ", " + sizeTwo);
             }
+            splitCost = getSplitCost(inSecond, n - sizeTwo, sizeTwo, evaluator, simSums);
+            return null;
+        }
+    }
+    // marks the members closer to centroidTwo (ties included) in inSecond and returns how many there are
+    private int getSplit(int[] cluster, int centroidOne, int centroidTwo, boolean[] inSecond) {
+        int docOne = cluster[centroidOne];
+        int docTwo = cluster[centroidTwo];
+        int sizeTwo = 0;
+        for (int i = 0; i < cluster.length; i++) {
+            double simOne = getSim(cluster[i], docOne);
+            double simTwo = getSim(cluster[i], docTwo);
+            inSecond[i] = !(simOne > simTwo);
+            if (inSecond[i]) sizeTwo++;
         }
+        return sizeTwo;
+    }
+    private double getSim(int i, int j) {
+        if (graph != null) return graph.get(i, j); // 0 unless i and j are neighbours
+        return docSims.get(i, j);
+    }
+    // also stores the similarity sums of the two halves in simSums
+    private double getSplitCost(boolean[] inSecond, int sizeOne, int sizeTwo, SplitEvaluator evaluator, double[] simSums) {
+        // cutcosts are the same since only splitting in two clusters
+        double cutCost = evaluator.evaluate(inSecond, sizeTwo, simSums);
+        double intraCostOne = getIntraCost(sizeOne, simSums[0]);
+        double intraCostTwo = getIntraCost(sizeTwo, simSums[1]);
         if (normalize) {
-            cutCost /= (split.get(0).size() * split.get(1).size());
+            cutCost /= ((double) sizeOne * sizeTwo);
         }
         double splitCost = ((cutCost / intraCostOne) + (cutCost / intraCostTwo));
-        //System.out.println("split cost is " + splitCost + ", where split sizes are " + split.get(0).size() + " and " + split.get(1).size());
+        //System.out.println("split cost is " + splitCost + ", where split sizes are " + sizeOne + " and " + sizeTwo);
         return splitCost;
     }
     
+    /* Assigning new documents */
+    
+    // an assigner that places documents appended to d later into these clusters, updating getClusters(),
+    // getAvgClusterSims() and getPartition() in place until its drift calls for a new clustering
+    public ClusterAssigner newAssigner(ClusterAssigner.Linkage linkage, double driftThreshold) {
+        return new ClusterAssigner(d, partition, clusters, avgClusterSims, linkage, driftThreshold);
+    }
+    
     /* Getters */
     
     public ArrayList<ArrayList<Integer>> getClusters() {
         return clusters;
     }
+    public Partition getPartition() {
+        return partition;
+    }
     public ArrayList<Double> getAvgClusterSims() {
         return avgClusterSims;
     }
+    public long getSeed() {
+        return seed;
+    }
     
     /* Debugging / print methods */
     
     public void printClusters() {
+        printClusters(System.out);
+    }
+    public void printClusters(PrintStream out) {
+        printClusters(out, null);
+    }
+    // with a labeler, each cluster is preceded by its top terms in brackets
+    public void printClusters(PrintStream out, ClusterLabeler labeler) {
+        String[][] terms = (labeler == null) ? null : labeler.getTopTerms(clusters);
         for (int i = 0; i < numClusters; i++) {
-            System.out.print("{ ");
+            if (terms != null) out.print("[" + String.join(" ", terms[i]) + "] ");
+            out.print("{ ");
             for (int j = 0; j < clusters.get(i).size(); j++) {
-                System.out.print(clusters.get(i).get(j) + " ");
+                out.print(clusters.get(i).get(j) + " ");
             }
-            System.out.print("}\n");
+            out.print("}\n");
         }
     }
     
     /* Testing */
     
     public static void main(String[] args) {
-        Data d = new Data("docword.nips.txt", "vocab.nips.txt");
-        HDC h = new HDC(d, 1500, 10, true);
-        h.printClusters();
+        // optional arguments: seed, number of threads
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : System.nanoTime();
+        int numThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", numThreads, SimMatrix.Storage.DENSE, System.getProperty("snapshot"));
+        HDC h = new HDC(d, 1500, 10, true, seed, numThreads);
+        System.out.println("HDC seed: " + h.getSeed());
+        h.printClusters(System.out, new ClusterLabeler(d, 10, ClusterLabeler.Weighting.TF_IDF));
     }
 }
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/* binary min-heap over the ids 0..capacity-1 with a double key each, ordered by key and then
+ * by id; positions are tracked so a key can be changed in O(log n) */
+public class IndexedMinHeap {
+
+    private int size;
+    private int[] ids; // heap order
+    private int[] positions; // position of each id in ids, -1 if absent
+    private double[] keys; // by id
+
+    public IndexedMinHeap(int capacity){
+        ids = new int[capacity];
+        positions = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+    public boolean contains(int id) {
+        return positions[id] != -1;
+    }
+    public int peek() {
+        return ids[0];
+    }
+    public double getKey(int id) {
+        return keys[id];
+    }
+    public int poll() {
+        int id = ids[0];
+        remove(id);
+        return id;
+    }
+    // inserts id, or changes its key if already present
+    public void put(int id, double key) {
+        if (positions[id] == -1) {
+            ids[size] = id;
+            positions[id] = size;
+            size++;
+        }
+        keys[id] = key;
+        siftUp(positions[id]);
+        siftDown(positions[id]);
+    }
+    public void remove(int id) {
+        int k = positions[id];
+        if (k == -1) return;
+        size--;
+        move(ids[size], k);
+        positions[id] = -1;
+        if (k < size) {
+            siftUp(k);
+            siftDown(k);
+        }
+    }
+    private boolean before(int idOne, int idTwo) {
+        return keys[idOne] < keys[idTwo] || (keys[idOne] == keys[idTwo] && idOne < idTwo);
+    }
+    private void siftUp(int k) {
+        int id = ids[k];
+        while (k > 0) {
+            int parent = (k - 1) / 2;
+            if (!before(id, ids[parent])) break;
+            move(ids[parent], k);
+            k = parent;
+        }
+        move(id, k);
+    }
+    private void siftDown(int k) {
+        int id = ids[k];
+        while (true) {
+            int child = 2 * k + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(ids[child + 1], ids[child])) child++;
+            if (!before(ids[child], id)) break;
+            move(ids[child], k);
+            k = child;
+        }
+        move(id, k);
+    }
+    private void move(int id, int k) {
+        ids[k] = id;
+        positions[id] = k;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.Arrays;
+
+/* word -> documents posting lists, i.e. the transpose of SparseDocs: the postings of word w
+ * are at positions postingOffsets[w] (inclusive) to postingOffsets[w + 1] (exclusive) of
+ * docIDs / counts, sorted by docID */
+public class InvertedIndex {
+
+    private int W;
+    private int[] postingOffsets; // length W + 1
+    private int[] docIDs;
+    private int[] counts;
+
+    public InvertedIndex(SparseDocs docs){
+        W = docs.getNumWords();
+        int D = docs.getNumDocs();
+        int[] rowWordIDs = docs.getWordIDs();
+        int[] rowCounts = docs.getCounts();
+        postingOffsets = new int[W + 1];
+        for (int k = 0; k < docs.getNNZ(); k++) {
+            postingOffsets[rowWordIDs[k] + 1] += 1;
+        }
+        for (int i = 0; i < W; i++) {
+            postingOffsets[i + 1] += postingOffsets[i];
+        }
+        // walking the documents in order leaves every posting list sorted by docID
+        int[] next = Arrays.copyOf(postingOffsets, W);
+        docIDs = new int[docs.getNNZ()];
+        counts = new int[docs.getNNZ()];
+        for (int i = 0; i < D; i++) {
+            for (int k = docs.rowStart(i); k < docs.rowEnd(i); k++) {
+                int pos = next[rowWordIDs[k]]++;
+                docIDs[pos] = i;
+                counts[pos] = rowCounts[k];
+            }
+        }
+    }
+
+    /* Getters */
+
+    public int getNumWords() {
+        return W;
+    }
+    public int[] getDocIDs() {
+        return docIDs;
+    }
+    public int[] getCounts() {
+        return counts;
+    }
+    public int postingStart(int word) {
+        return postingOffsets[word];
+    }
+    public int postingEnd(int word) {
+        return postingOffsets[word + 1];
+    }
+    public int postingLength(int word) {
+        return postingOffsets[word + 1] - postingOffsets[word];
+    }
+    // position of the first posting of word with docID >= doc
+    public int firstPosting(int word, int doc) {
+        int k = Arrays.binarySearch(docIDs, postingOffsets[word], postingOffsets[word + 1], doc);
+        return (k >= 0) ? k : -(k + 1);
+    }
+}
@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* sparse similarity graph keeping each document's k most similar documents instead of the
+ * full D x D matrix: every row of dot products is accumulated over the inverted index (only
+ * the documents sharing a word are touched) and screened through a bounded min-heap of size
+ * k. The graph is then symmetrized (j is a neighbour of i if either is among the other's k
+ * nearest) and stored as CSR rows sorted by neighbour, so memory is O(D * k). Pairs that are
+ * not edges count as similarity 0 */
+public class KnnGraph {
+
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8; // largest array the JVM reliably allocates
+
+    private int D;
+    private int k;
+    private int[] offsets; // row i is neighbours[offsets[i]..offsets[i+1])
+    private int[] neighbours;
+    private float[] sims;
+    private float[] selfSims; // similarity of each document with itself (1, or 0 for an empty one)
+
+    public KnnGraph(CosineSimilarity cosine, int D, int k){
+        this(cosine, D, k, 1);
+    }
+    public KnnGraph(CosineSimilarity cosine, int D, int k, int numThreads){
+        checkSize(D, k);
+        this.D = D;
+        this.k = k;
+        selfSims = new float[D];
+        int[] topDocs = new int[D * k]; // directed k nearest of row i at i * k, unordered
+        float[] topSims = new float[D * k];
+        int[] topCounts = new int[D];
+        int numTasks = (numThreads > 1) ? 4 * numThreads : 1;
+        ArrayList<RowTask> tasks = new ArrayList<RowTask>(numTasks);
+        for (int t = 0; t < numTasks; t++) tasks.add(new RowTask(cosine, t, numTasks, topDocs, topSims, topCounts));
+        if (numThreads > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                for (Future<Void> result : executor.invokeAll(tasks)) result.get();
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            finally {
+                executor.shutdown();
+            }
+        }
+        else {
+            tasks.get(0).call();
+        }
+        symmetrize(topDocs, topSims, topCounts);
+    }
+    // graph over candidate pairs only (e.g. from SimHashLsh): pairs[p] packs documents i < j as
+    // (i << 32) | j, pairSims[p] is their similarity and selfSims the diagonal; each document keeps
+    // its k most similar candidates
+    public KnnGraph(int D, int k, long[] pairs, double[] pairSims, int numPairs, float[] selfSims){
+        checkSize(D, k);
+        this.D = D;
+        this.k = k;
+        this.selfSims = selfSims;
+        int[] starts = new int[D + 1];
+        for (int p = 0; p < numPairs; p++) {
+            starts[(int) (pairs[p] >>> 32) + 1]++;
+            starts[(int) pairs[p] + 1]++;
+        }
+        for (int i = 0; i < D; i++) starts[i + 1] += starts[i];
+        int[] candidateDocs = new int[starts[D]];
+        double[] candidateSims = new double[starts[D]];
+        int[] fill = Arrays.copyOf(starts, D);
+        for (int p = 0; p < numPairs; p++) {
+            int i = (int) (pairs[p] >>> 32);
+            int j = (int) pairs[p];
+            candidateDocs[fill[i]] = j;
+            candidateSims[fill[i]++] = pairSims[p];
+            candidateDocs[fill[j]] = i;
+            candidateSims[fill[j]++] = pairSims[p];
+        }
+        int[] topDocs = new int[D * k];
+        float[] topSims = new float[D * k];
+        int[] topCounts = new int[D];
+        int[] heapDocs = new int[k];
+        double[] heapSims = new double[k];
+        for (int i = 0; i < D; i++) {
+            int size = 0;
+            for (int c = starts[i]; c < starts[i + 1]; c++) {
+                if (candidateSims[c] > 0) size = offer(heapDocs, heapSims, size, candidateDocs[c], candidateSims[c]);
+            }
+            keep(i, heapDocs, heapSims, size, topDocs, topSims, topCounts);
+        }
+        symmetrize(topDocs, topSims, topCounts);
+    }
+    // the directed top-k arrays hold D * k entries and symmetrizing lists every edge twice, all with int
+    // offsets, so 2 * D * k must fit one array
+    private static void checkSize(int D, int k) {
+        if (2L * D * k > MAX_ARRAY) {
+            throw new IllegalArgumentException(D + " documents with " + k + " neighbours each need " + (2L * D * k) + 
+                                               " edge slots, more than one array holds; use a smaller k");
+        }
+    }
+    // rows t, t + numTasks, t + 2 * numTasks, ... with one accumulator for all of them
+    private class RowTask implements Callable<Void> {
+        private CosineSimilarity cosine;
+        private int firstRow;
+        private int stride;
+        private int[] topDocs;
+        private float[] topSims;
+        private int[] topCounts;
+
+        RowTask(CosineSimilarity cosine, int firstRow, int stride, int[] topDocs, float[] topSims, int[] topCounts) {
+            this.cosine = cosine;
+            this.firstRow = firstRow;
+            this.stride = stride;
+            this.topDocs = topDocs;
+            this.topSims = topSims;
+            this.topCounts = topCounts;
+        }
+        public Void call() {
+            long[] dots = new long[D];
+            int[] touched = new int[D];
+            int[] heapDocs = new int[k];
+            double[] heapSims = new double[k];
+            for (int i = firstRow; i < D; i += stride) {
+                int numTouched = cosine.accumulateRow(i, dots, touched);
+                int size = 0;
+                for (int t = 0; t < numTouched; t++) {
+                    int j = touched[t];
+                    // computed from the smaller index, as the full matrix is, so both directions agree
+                    double sim = (i < j) ? cosine.sim(i, j, dots[j]) : cosine.sim(j, i, dots[j]);
+                    dots[j] = 0;
+                    if (j == i) {
+                        selfSims[i] = (float) sim;
+                        continue;
+                    }
+                    size = offer(heapDocs, heapSims, size, j, sim);
+                }
+                keep(i, heapDocs, heapSims, size, topDocs, topSims, topCounts);
+            }
+            return null;
+        }
+    }
+    // adds (doc, sim) to a bounded heap holding size of at most k neighbours; returns its new size
+    private int offer(int[] heapDocs, double[] heapSims, int size, int doc, double sim) {
+        if (size < k) {
+            heapDocs[size] = doc;
+            heapSims[size] = sim;
+            siftUp(heapDocs, heapSims, size);
+            return size + 1;
+        }
+        if (k > 0 && better(sim, doc, heapSims[0], heapDocs[0])) {
+            heapDocs[0] = doc;
+            heapSims[0] = sim;
+            siftDown(heapDocs, heapSims, size);
+        }
+        return size;
+    }
+    // stores the heap as row i's directed neighbours
+    private void keep(int i, int[] heapDocs, double[] heapSims, int size, int[] topDocs, float[] topSims, int[] topCounts) {
+        for (int m = 0; m < size; m++) {
+            topDocs[i * k + m] = heapDocs[m];
+            topSims[i * k + m] = (float) heapSims[m];
+        }
+        topCounts[i] = size;
+    }
+    // neighbour order: more similar first, ties to the smaller document
+    private static boolean better(double simOne, int docOne, double simTwo, int docTwo) {
+        return simOne > simTwo || (simOne == simTwo && docOne < docTwo);
+    }
+    // min-heap on neighbour order: the root is the worst of the k kept so far
+    private static void siftUp(int[] docs, double[] sims, int m) {
+        while (m > 0) {
+            int parent = (m - 1) / 2;
+            if (!better(sims[parent], docs[parent], sims[m], docs[m])) break;
+            swap(docs, sims, m, parent);
+            m = parent;
+        }
+    }
+    private static void siftDown(int[] docs, double[] sims, int size) {
+        int m = 0;
+        while (true) {
+            int child = 2 * m + 1;
+            if (child >= size) break;
+            if (child + 1 < size && better(sims[child], docs[child], sims[child + 1], docs[child + 1])) child++;
+            if (!better(sims[m], docs[m], sims[child], docs[child])) break;
+            swap(docs, sims, m, child);
+            m = child;
+        }
+    }
+    private static void swap(int[] docs, double[] sims, int a, int b) {
+        int doc = docs[a];
+        docs[a] = docs[b];
+        docs[b] = doc;
+        double sim = sims[a];
+        sims[a] = sims[b];
+        sims[b] = sim;
+    }
+    // every directed edge is added in both directions, then each row is sorted and deduplicated
+    private void symmetrize(int[] topDocs, float[] topSims, int[] topCounts) {
+        int[] starts = new int[D + 1];
+        for (int i = 0; i < D; i++) {
+            starts[i + 1] += topCounts[i];
+            for (int m = 0; m < topCounts[i]; m++) starts[topDocs[i * k + m] + 1]++;
+        }
+        for (int i = 0; i < D; i++) starts[i + 1] += starts[i];
+        // (neighbour, sim bits) packed into one long so a row sorts by neighbour
+        long[] edges = new long[starts[D]];
+        int[] fill = Arrays.copyOf(starts, D);
+        for (int i = 0; i < D; i++) {
+            for (int m = 0; m < topCounts[i]; m++) {
+                int j = topDocs[i * k + m];
+                long bits = Float.floatToRawIntBits(topSims[i * k + m]) & 0xffffffffL;
+                edges[fill[i]++] = ((long) j << 32) | bits;
+                edges[fill[j]++] = ((long) i << 32) | bits;
+            }
+        }
+        offsets = new int[D + 1];
+        int numEdges = 0;
+        for (int i = 0; i < D; i++) {
+            Arrays.sort(edges, starts[i], starts[i + 1]);
+            for (int e = starts[i]; e < starts[i + 1]; e++) {
+                // both directions of a mutual pair carry the same similarity
+                if (e > starts[i] && (edges[e] >>> 32) == (edges[e - 1] >>> 32)) continue;
+                edges[numEdges++] = edges[e];
+            }
+            offsets[i + 1] = numEdges;
+        }
+        neighbours = new int[numEdges];
+        sims = new float[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            neighbours[e] = (int) (edges[e] >>> 32);
+            sims[e] = Float.intBitsToFloat((int) edges[e]);
+        }
+    }
+
+    /* Getters */
+
+    public int size() {
+        return D;
+    }
+    public int getK() {
+        return k;
+    }
+    public int getNumEdges() {
+        return neighbours.length;
+    }
+    public int[] getOffsets() {
+        return offsets;
+    }
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+    public float[] getSims() {
+        return sims;
+    }
+    public int rowStart(int doc) {
+        return offsets[doc];
+    }
+    public int rowEnd(int doc) {
+        return offsets[doc + 1];
+    }
+    public double getSelfSim(int doc) {
+        return selfSims[doc];
+    }
+    // similarity of docs i and j, 0 if they are not neighbours
+    public double get(int i, int j) {
+        if (i == j) return selfSims[i];
+        int e = Arrays.binarySearch(neighbours, offsets[i], offsets[i + 1], j);
+        return (e >= 0) ? sims[e] : 0;
+    }
+    // sum of the similarities of all (ordered) pairs of documents in the cluster, self-pairs included
+    public double getSimSum(int[] cluster) {
+        int[] sorted = cluster.clone();
+        Arrays.sort(sorted);
+        double simSum = 0;
+        for (int doc : sorted) {
+            simSum += selfSims[doc];
+            for (int e = offsets[doc]; e < offsets[doc + 1]; e++) {
+                if (Arrays.binarySearch(sorted, neighbours[e]) >= 0) simSum += sims[e];
+            }
+        }
+        return simSum;
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/* packed upper-triangular float matrix (same layout as PackedSimMatrix) kept off the Java
+ * heap, either in direct buffers or in a memory-mapped file that the OS pages in and out */
+public class MappedSimMatrix implements SimMatrix {
+
+    private static final int SEGMENT_BITS = 28; // bytes per buffer, so floats never straddle two
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private int n;
+    private File file; // null for direct buffers
+    private ByteBuffer[] segments;
+
+    // direct (off-heap, not file-backed) buffers
+    public MappedSimMatrix(int n){
+        this.n = n;
+        long numBytes = 4 * PackedSimMatrix.numEntries(n);
+        segments = new ByteBuffer[numSegments(numBytes)];
+        for (int s = 0; s < segments.length; s++) {
+            segments[s] = ByteBuffer.allocateDirect(segmentLength(numBytes, s)).order(ByteOrder.nativeOrder());
+        }
+    }
+    // buffers mapped read-write onto file, starting at byte offset; existing contents are kept
+    public MappedSimMatrix(int n, File file, long offset) throws IOException {
+        this(n, file, offset, false);
+    }
+    // buffers mapped onto file, starting at byte offset; set throws if readOnly
+    public MappedSimMatrix(int n, File file, long offset, boolean readOnly) throws IOException {
+        this.n = n;
+        this.file = file;
+        long numBytes = 4 * PackedSimMatrix.numEntries(n);
+        segments = new ByteBuffer[numSegments(numBytes)];
+        RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        try {
+            FileChannel channel = raf.getChannel();
+            for (int s = 0; s < segments.length; s++) {
+                long position = offset + ((long) s << SEGMENT_BITS);
+                segments[s] = channel.map(mode, position, segmentLength(numBytes, s)).order(ByteOrder.nativeOrder());
+            }
+        }
+        finally {
+            raf.close(); // mappings stay valid after the channel is closed
+        }
+    }
+    // matrix mapped onto a new temporary file that is deleted on exit
+    public static MappedSimMatrix createTemp(int n) throws IOException {
+        File file = File.createTempFile("sims", ".bin");
+        file.deleteOnExit();
+        return new MappedSimMatrix(n, file, 0);
+    }
+
+    private static int numSegments(long numBytes) {
+        return (int) ((numBytes + SEGMENT_MASK) >>> SEGMENT_BITS);
+    }
+    private static int segmentLength(long numBytes, int segment) {
+        return (int) Math.min(1L << SEGMENT_BITS, numBytes - ((long) segment << SEGMENT_BITS));
+    }
+
+    public int size() {
+        return n;
+    }
+    public double get(int i, int j) {
+        long b = 4 * PackedSimMatrix.index(n, i, j);
+        return segments[(int) (b >>> SEGMENT_BITS)].getFloat((int) (b & SEGMENT_MASK));
+    }
+    public void set(int i, int j, double sim) {
+        long b = 4 * PackedSimMatrix.index(n, i, j);
+        segments[(int) (b >>> SEGMENT_BITS)].putFloat((int) (b & SEGMENT_MASK), (float) sim);
+    }
+    public SimMatrix copy() {
+        MappedSimMatrix copy;
+        try {
+            copy = (file == null) ? new MappedSimMatrix(n) : createTemp(n);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer source = segments[s].duplicate();
+            source.clear();
+            ByteBuffer target = copy.segments[s].duplicate();
+            target.clear();
+            target.put(source);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/* evaluates candidate two-way splits of one cluster over the full matrix, from precomputed row sums: with S(x)
+ * the similarity sum of member x to the whole cluster and T the sum of all S(x), a split
+ * into halves A and B has
+ *     cut(A, B) = sum over x in A of S(x) - intra(A)
+ *     intra(B)  = T - intra(A) - 2 * cut(A, B)
+ * so only the smaller half needs a pairwise pass, instead of one pass per half plus the cut.
+ * The row sums cost one (symmetric) pass over the cluster and are shared by all trials */
+public class MatrixSplitEvaluator implements SplitEvaluator {
+
+    private SimMatrix sims;
+    private int[] members; // the cluster, in the order split trials index it
+    private double[] rowSums; // by position in members
+    private double totalSum;
+    private LongAdder numLookups = new LongAdder();
+
+    public MatrixSplitEvaluator(SimMatrix sims, int[] members){
+        this.sims = sims;
+        this.members = members;
+        int n = members.length;
+        numLookups.add((long) n * (n + 1) / 2);
+        // a packed matrix gathers its rows through SimKernels
+        if (sims instanceof PackedSimMatrix) rowSums = ((PackedSimMatrix) sims).getRowSums(members);
+        else rowSums = getRowSums(members);
+        for (double rowSum : rowSums) totalSum += rowSum;
+    }
+    private double[] getRowSums(int[] members) {
+        int n = members.length;
+        double[] rowSums = new double[n];
+        for (int j = 0; j < n; j++) {
+            int docJ = members[j];
+            double rowSum = sims.get(docJ, docJ);
+            for (int k = j + 1; k < n; k++) {
+                double sim = sims.get(docJ, members[k]);
+                rowSum += sim;
+                rowSums[k] += sim;
+            }
+            rowSums[j] += rowSum;
+        }
+        return rowSums;
+    }
+
+    public double getTotalSum() {
+        return totalSum;
+    }
+    public double evaluate(boolean[] inSecond, int sizeTwo, double[] simSums) {
+        boolean oneIsSmaller = members.length - sizeTwo <= sizeTwo;
+        int n = oneIsSmaller ? members.length - sizeTwo : sizeTwo;
+        int[] smaller = new int[n];
+        double rowSumTotal = 0;
+        for (int j = 0, k = 0; k < n; j++) {
+            if (inSecond[j] == oneIsSmaller) continue; // not in the smaller half
+            smaller[k++] = members[j];
+            rowSumTotal += rowSums[j];
+        }
+        numLookups.add((long) n * (n + 1) / 2);
+        double intraSum;
+        if (sims instanceof PackedSimMatrix) intraSum = ((PackedSimMatrix) sims).getSimSum(smaller);
+        else intraSum = getSimSum(smaller);
+        double cutSum = rowSumTotal - intraSum;
+        double otherIntraSum = totalSum - intraSum - 2 * cutSum;
+        simSums[oneIsSmaller ? 0 : 1] = intraSum;
+        simSums[oneIsSmaller ? 1 : 0] = otherIntraSum;
+        return cutSum;
+    }
+    private double getSimSum(int[] docs) {
+        double simSum = 0;
+        for (int j = 0; j < docs.length; j++) {
+            int docJ = docs[j];
+            simSum += sims.get(docJ, docJ);
+            double offDiagonal = 0;
+            for (int k = j + 1; k < docs.length; k++) {
+                offDiagonal += sims.get(docJ, docs[k]);
+            }
+            simSum += 2 * offDiagonal;
+        }
+        return simSum;
+    }
+    public long getNumLookups() {
+        return numLookups.sum();
+    }
+}
@@ -0,0 +1,16 @@
+/* source of the merges for complete-link HAC over cluster slots 0..N-1: the next most similar
+ * pair of live clusters, and the similarity updates once a pair is merged (merging j into i,
+ * i < j, empties slot j). Ties go to the smallest i and then the smallest j */
+public interface MergeEngine {
+
+    // most similar pair {i, j}, i < j, of live clusters; null if fewer than two are left
+    int[] nextMerge();
+    // complete-link similarity of two live clusters; not counted by getNumLookups itself, as engines
+    // count their reads in bulk
+    double getSim(int i, int j);
+    // merges cluster from into cluster to
+    void merge(int to, int from);
+    int getNumActive();
+    // similarities read so far (document similarities, or cluster similarities in graph mode)
+    long getNumLookups();
+}
@@ -0,0 +1,249 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/* run instrumentation: wall time, CPU time and peak heap per phase (parse, buildDocSims, hac,
+ * hdc, agreement, ...) plus counters of the work done, written out as a JSON report. Phases are
+ * coarse and counters are added in bulk by the code that does the work (once per merge, split or
+ * pass, never per similarity), so it stays on in normal runs. CPU time is the process's, so it
+ * covers worker threads; it and the peak heap are JVM-wide, so phases running at the same time
+ * are each charged for all of it. The peak heap is the largest heap usage sampled while the phase
+ * ran (at its start and stop, and every SAMPLE_MILLIS by one daemon thread shared by all
+ * instances); nothing JVM-global is reset, so any number of Metrics can run side by side, but a
+ * spike shorter than the sampling interval may be missed */
+public class Metrics {
+
+    public enum Counter {
+        SIM_LOOKUPS, // document or cluster similarities read
+        HAC_MERGES,
+        HDC_SPLITS,
+        HDC_TRIALS,
+        DOCS_APPENDED,
+        DOCS_ASSIGNED // appended documents placed into an existing clustering
+    }
+
+    private LinkedHashMap<String, PhaseStats> phases = new LinkedHashMap<String, PhaseStats>(); // in first-started order
+    private LinkedHashMap<String, Object> info = new LinkedHashMap<String, Object>(); // run parameters for the report
+    private static final long SAMPLE_MILLIS = 10;
+    private static final ArrayList<MemoryPoolMXBean> HEAP_POOLS = new ArrayList<MemoryPoolMXBean>();
+    private static final Set<Metrics> SAMPLED = ConcurrentHashMap.newKeySet(); // instances with a running phase
+    private static Thread sampler; // started on the first phase
+
+    static {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) HEAP_POOLS.add(pool);
+        }
+    }
+
+    private LongAdder[] counters = new LongAdder[Counter.values().length];
+    private ArrayList<Timer> openTimers = new ArrayList<Timer>();
+    private long peakHeap; // largest peak seen by any phase
+    private com.sun.management.OperatingSystemMXBean os; // null if the JVM doesn't report process CPU time
+    private ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    public Metrics(){
+        for (int c = 0; c < counters.length; c++) counters[c] = new LongAdder();
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean) {
+            os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        }
+    }
+
+    // times a phase until the returned timer is stopped; phases may nest and may repeat (their
+    // times then add up)
+    public synchronized Timer startPhase(String name) {
+        Timer timer = new Timer(name);
+        openTimers.add(timer);
+        sample(getHeapUsed());
+        startSampling(this);
+        return timer;
+    }
+    private synchronized void stopPhase(Timer timer) {
+        if (!openTimers.remove(timer)) return; // already stopped
+        if (openTimers.isEmpty()) SAMPLED.remove(this);
+        long wallNanos = System.nanoTime() - timer.startWall;
+        long cpuNanos = getCpuNanos() - timer.startCpu;
+        long peak = Math.max(timer.peakHeap, getHeapUsed());
+        peakHeap = Math.max(peakHeap, peak);
+        PhaseStats stats = phases.get(timer.name);
+        if (stats == null) {
+            stats = new PhaseStats();
+            phases.put(timer.name, stats);
+        }
+        stats.count++;
+        stats.wallNanos += wallNanos;
+        stats.cpuNanos += cpuNanos;
+        stats.peakHeap = Math.max(stats.peakHeap, peak);
+    }
+    public void count(Counter counter, long n) {
+        counters[counter.ordinal()].add(n);
+    }
+    // a run parameter (corpus size, k, ...) to include in the report
+    public synchronized void setInfo(String key, Object value) {
+        info.put(key, value);
+    }
+
+    private long getCpuNanos() {
+        if (os != null && os.getProcessCpuTime() >= 0) return os.getProcessCpuTime();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+    }
+    // heap in use now, garbage included, summed over the heap pools
+    private static long getHeapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : HEAP_POOLS) used += pool.getUsage().getUsed();
+        return used;
+    }
+    // raises the peak of every running phase to used
+    private synchronized void sample(long used) {
+        for (Timer timer : openTimers) timer.peakHeap = Math.max(timer.peakHeap, used);
+    }
+    private static synchronized void startSampling(Metrics metrics) {
+        SAMPLED.add(metrics);
+        if (sampler != null) {
+            Metrics.class.notifyAll();
+            return;
+        }
+        sampler = new Thread(Metrics::runSampler, "metrics-heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+    // samples the heap for every instance with a running phase, and waits while there is none
+    private static void runSampler() {
+        try {
+            while (true) {
+                synchronized (Metrics.class) {
+                    while (SAMPLED.isEmpty()) Metrics.class.wait();
+                }
+                long used = getHeapUsed();
+                for (Metrics metrics : SAMPLED) metrics.sample(used);
+                Thread.sleep(SAMPLE_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            synchronized (Metrics.class) {
+                sampler = null;
+            }
+        }
+    }
+
+    // a running phase
+    public class Timer {
+        private String name;
+        private long startWall = System.nanoTime();
+        private long startCpu = getCpuNanos();
+        private long peakHeap;
+
+        private Timer(String name) {
+            this.name = name;
+        }
+        public void stop() {
+            stopPhase(this);
+        }
+    }
+    private static class PhaseStats {
+        private int count;
+        private long wallNanos;
+        private long cpuNanos;
+        private long peakHeap;
+    }
+
+    /* Getters */
+
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+    public synchronized long getWallNanos(String phase) {
+        return phases.containsKey(phase) ? phases.get(phase).wallNanos : 0;
+    }
+    public synchronized long getCpuNanos(String phase) {
+        return phases.containsKey(phase) ? phases.get(phase).cpuNanos : 0;
+    }
+    public synchronized long getPeakHeap(String phase) {
+        return phases.containsKey(phase) ? phases.get(phase).peakHeap : 0;
+    }
+    public synchronized long getPeakHeap() {
+        long peak = peakHeap;
+        for (Timer timer : openTimers) peak = Math.max(peak, timer.peakHeap);
+        return Math.max(peak, getHeapUsed());
+    }
+    public double getMergesPerSecond() {
+        long nanos = getWallNanos("hac");
+        return (nanos == 0) ? 0 : getCount(Counter.HAC_MERGES) / (nanos / 1e9);
+    }
+
+    /* Report */
+
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"info\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Object> entry : info.entrySet()) {
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": ");
+            Object value = entry.getValue();
+            if (value instanceof Number || value instanceof Boolean) json.append(value);
+            else json.append(quote(String.valueOf(value)));
+            separator = ",\n";
+        }
+        json.append(info.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"phases\": {");
+        separator = "\n";
+        for (Map.Entry<String, PhaseStats> entry : phases.entrySet()) {
+            PhaseStats stats = entry.getValue();
+            json.append(separator).append("    ").append(quote(entry.getKey())).append(": { \"count\": ").append(stats.count);
+            json.append(", \"wallMillis\": ").append(stats.wallNanos / 1e6);
+            json.append(", \"cpuMillis\": ").append(stats.cpuNanos / 1e6);
+            json.append(", \"peakHeapBytes\": ").append(stats.peakHeap).append(" }");
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "},\n" : "\n  },\n");
+        json.append("  \"counters\": {\n");
+        for (Counter counter : Counter.values()) {
+            json.append("    ").append(quote(camelCase(counter.name()))).append(": ").append(getCount(counter)).append(",\n");
+        }
+        json.append("    \"hacMergesPerSecond\": ").append(getMergesPerSecond()).append("\n  },\n");
+        json.append("  \"peakHeapBytes\": ").append(getPeakHeap()).append("\n}\n");
+        return json.toString();
+    }
+    public void writeJson(String filename) {
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(filename));
+            try {
+                out.print(toJson());
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace(System.out);
+        }
+    }
+    // SIM_LOOKUPS -> simLookups
+    private static String camelCase(String name) {
+        StringBuilder camel = new StringBuilder();
+        for (String word : name.toLowerCase().split("_")) {
+            if (camel.length() == 0) camel.append(word);
+            else camel.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return camel.toString();
+    }
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') quoted.append('\\').append(c);
+            else if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+            else quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
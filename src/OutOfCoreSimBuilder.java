@@ -0,0 +1,162 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/* builds the similarity matrix of a corpus that does not fit in memory. The docword file is
+ * streamed once in blocks of tileSize documents, each block spilled as CSR to a temporary
+ * file; then, for every block pair (a, b), a <= b, block a's inverted index is matched against
+ * block b's rows and the resulting tile is written to a TiledSimMatrix. At any time the heap
+ * holds two blocks, one inverted index and one tile, plus the matrix's tile cache; the tile
+ * size and cache are derived from heapBudget. The docword file must be sorted by docID, and a
+ * block of tileSize documents is assumed to fit the budget (as it does for bag-of-words data).
+ * Similarities are computed with the same formula and rounding as the in-memory builders */
+public class OutOfCoreSimBuilder {
+
+    public static final long DEFAULT_HEAP_BUDGET = 256L << 20;
+
+    private CorpusParser parser;
+    private long heapBudget;
+    private int tileSize;
+    private int D;
+    private int W;
+    private long NNZ;
+    private File spillFile;
+    private long[] blockPositions; // start of each spilled block, plus the end of the last
+    private int numBlocks;
+
+    public OutOfCoreSimBuilder(CorpusParser parser, long heapBudget){
+        this.parser = parser;
+        this.heapBudget = heapBudget;
+        tileSize = TiledSimMatrix.tileSizeFor(heapBudget);
+    }
+
+    // builds the matrix into tileFile (a temporary file if null)
+    public TiledSimMatrix build(String docwordFilename, File tileFile) throws IOException {
+        spillFile = File.createTempFile("blocks", ".bin");
+        spillFile.deleteOnExit();
+        try {
+            spillBlocks(docwordFilename);
+            long tileBytes = 4L * tileSize * tileSize;
+            int maxCachedTiles = (int) Math.max(2, (heapBudget / 2) / tileBytes);
+            TiledSimMatrix sims;
+            if (tileFile == null) sims = TiledSimMatrix.createTemp(D, tileSize, maxCachedTiles);
+            else sims = new TiledSimMatrix(D, tileSize, tileFile, maxCachedTiles);
+            computeTiles(sims);
+            return sims;
+        }
+        finally {
+            spillFile.delete();
+        }
+    }
+    private void spillBlocks(String docwordFilename) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(spillFile, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            parser.parseDocwordBlocks(docwordFilename, tileSize, new CorpusParser.DocBlockHandler() {
+                public void header(int numDocs, int numWords, long numNonZeros) {
+                    D = numDocs;
+                    W = numWords;
+                    NNZ = numNonZeros;
+                    blockPositions = new long[(D + tileSize - 1) / tileSize + 1];
+                }
+                public void block(int firstDoc, SparseDocs docs) throws IOException {
+                    writeBlock(channel, docs);
+                }
+            });
+        }
+        finally {
+            raf.close();
+        }
+    }
+    // block layout: numDocs, nnz, rowOffsets, wordIDs, counts as native-order ints
+    private void writeBlock(FileChannel channel, SparseDocs docs) throws IOException {
+        int numDocs = docs.getNumDocs();
+        int nnz = docs.getNNZ();
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (2 + numDocs + 1 + 2 * nnz)).order(ByteOrder.nativeOrder());
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(numDocs);
+        ints.put(nnz);
+        ints.put(docs.getRowOffsets(), 0, numDocs + 1);
+        ints.put(docs.getWordIDs(), 0, nnz);
+        ints.put(docs.getCounts(), 0, nnz);
+        long position = blockPositions[numBlocks];
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        numBlocks++;
+        blockPositions[numBlocks] = position;
+    }
+    private SparseDocs readBlock(FileChannel channel, int block) throws IOException {
+        long position = blockPositions[block];
+        IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, position, blockPositions[block + 1] - position)
+                                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        int numDocs = ints.get();
+        int nnz = ints.get();
+        int[] rowOffsets = new int[numDocs + 1];
+        int[] wordIDs = new int[nnz];
+        int[] counts = new int[nnz];
+        ints.get(rowOffsets);
+        ints.get(wordIDs);
+        ints.get(counts);
+        return new SparseDocs(numDocs, W, rowOffsets, wordIDs, counts);
+    }
+    private static double[] magnitudes(SparseDocs docs) {
+        double[] magnitudes = new double[docs.getNumDocs()];
+        for (int i = 0; i < magnitudes.length; i++) magnitudes[i] = docs.magnitude(i);
+        return magnitudes;
+    }
+    private void computeTiles(TiledSimMatrix sims) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(spillFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            float[] tile = new float[tileSize * tileSize];
+            long[] dots = new long[tileSize];
+            for (int a = 0; a < numBlocks; a++) {
+                SparseDocs docsA = readBlock(channel, a);
+                double[] magnitudesA = magnitudes(docsA);
+                InvertedIndex indexA = new InvertedIndex(docsA);
+                for (int b = a; b < numBlocks; b++) {
+                    SparseDocs docsB = (b == a) ? docsA : readBlock(channel, b);
+                    double[] magnitudesB = (b == a) ? magnitudesA : magnitudes(docsB);
+                    // rows of block b accumulated over block a's postings give the tile's columns
+                    CosineSimilarity cosine = new CosineSimilarity(docsB, indexA, null);
+                    Arrays.fill(tile, 0);
+                    int sizeA = docsA.getNumDocs();
+                    for (int j = 0; j < docsB.getNumDocs(); j++) {
+                        int rows = (b == a) ? j + 1 : sizeA; // diagonal tiles: i <= j, mirrored below
+                        cosine.accumulateRow(j, 0, rows, dots);
+                        for (int i = 0; i < rows; i++) {
+                            // same as CosineSimilarity.sim for global i <= j
+                            float sim = (dots[i] == 0) ? 0 : (float) ((dots[i] / magnitudesA[i]) / magnitudesB[j]);
+                            tile[i * tileSize + j] = sim;
+                            if (b == a) tile[j * tileSize + i] = sim;
+                            dots[i] = 0;
+                        }
+                    }
+                    sims.putTile(a, b, tile);
+                }
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /* Getters */
+
+    public int getTileSize() {
+        return tileSize;
+    }
+    public int getNumDocs() {
+        return D;
+    }
+    public int getNumWords() {
+        return W;
+    }
+    public long getNNZ() {
+        return NNZ;
+    }
+}
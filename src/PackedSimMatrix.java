@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+/* upper triangle (including the diagonal) of a symmetric matrix packed row by row into
+ * floats, i.e. n(n+1)/2 * 4 bytes instead of n^2 * 8; entries live in chunks of 2^CHUNK_BITS
+ * floats so n is not limited by the maximum Java array length */
+public class PackedSimMatrix implements SimMatrix {
+
+    static final int CHUNK_BITS = 27;
+    static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private int n;
+    private float[][] chunks;
+
+    public PackedSimMatrix(int n){
+        this.n = n;
+        long numEntries = numEntries(n);
+        chunks = new float[(int) ((numEntries + CHUNK_MASK) >>> CHUNK_BITS)][];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = new float[(int) Math.min(1L << CHUNK_BITS, numEntries - ((long) c << CHUNK_BITS))];
+        }
+    }
+
+    // number of stored entries for an n x n symmetric matrix
+    static long numEntries(int n) {
+        return (long) n * (n + 1) / 2;
+    }
+    // position of (i, j) in the row-by-row packed upper triangle
+    static long index(int n, int i, int j) {
+        if (i > j) {
+            int tmp = i;
+            i = j;
+            j = tmp;
+        }
+        return (long) i * n - (long) i * (i - 1) / 2 + (j - i);
+    }
+
+    public int size() {
+        return n;
+    }
+    public double get(int i, int j) {
+        long k = index(n, i, j);
+        return chunks[(int) (k >>> CHUNK_BITS)][(int) (k & CHUNK_MASK)];
+    }
+    public void set(int i, int j, double sim) {
+        long k = index(n, i, j);
+        chunks[(int) (k >>> CHUNK_BITS)][(int) (k & CHUNK_MASK)] = (float) sim;
+    }
+    public SimMatrix copy() {
+        PackedSimMatrix copy = new PackedSimMatrix(n);
+        for (int c = 0; c < chunks.length; c++) {
+            copy.chunks[c] = Arrays.copyOf(chunks[c], chunks[c].length);
+        }
+        return copy;
+    }
+
+    /* Rows */
+
+    // sets (i, j), ..., (i, j + length - 1), j >= i, to values[from..]; a row is contiguous
+    // except where it crosses into the next chunk
+    public void setRow(int i, int j, float[] values, int from, int length) {
+        long k = index(n, i, j);
+        while (length > 0) {
+            int offset = (int) (k & CHUNK_MASK);
+            int m = Math.min(length, chunks[(int) (k >>> CHUNK_BITS)].length - offset);
+            System.arraycopy(values, from, chunks[(int) (k >>> CHUNK_BITS)], offset, m);
+            k += m;
+            from += m;
+            length -= m;
+        }
+    }
+
+    /* Cluster sums */
+
+    // similarity sum of every document in docs with all of docs (itself included), by position
+    // in docs: in increasing document order, each member's row to the later members is
+    // contiguous, so one SimKernels.gatherSum per member yields both its own upper sum and its
+    // contributions to the later members
+    public double[] getRowSums(int[] docs) {
+        int m = docs.length;
+        int[] order = sortedPositions(docs);
+        int[] sorted = new int[m];
+        for (int x = 0; x < m; x++) sorted[x] = docs[order[x]];
+        double[] sums = new double[m]; // by sorted position; first the sums over earlier members
+        for (int x = 0; x < m; x++) {
+            sums[x] += get(sorted[x], sorted[x]) + upperSum(sorted, x, sums);
+        }
+        double[] rowSums = new double[m];
+        for (int x = 0; x < m; x++) rowSums[order[x]] = sums[x];
+        return rowSums;
+    }
+    // sum of the similarities of all (ordered) pairs of documents in docs, self-pairs included
+    public double getSimSum(int[] docs) {
+        int[] sorted = docs.clone();
+        Arrays.sort(sorted);
+        double simSum = 0;
+        for (int x = 0; x < sorted.length; x++) {
+            simSum += get(sorted[x], sorted[x]) + 2 * upperSum(sorted, x, null);
+        }
+        return simSum;
+    }
+    // sum of (sorted[x], sorted[y]) over y > x, each term also added to sums[y] unless sums is null
+    private double upperSum(int[] sorted, int x, double[] sums) {
+        int m = sorted.length;
+        if (x + 1 == m) return 0;
+        int i = sorted[x];
+        long rowBase = index(n, i, i) - i; // (i, j) is at rowBase + j
+        int chunk = (int) ((rowBase + sorted[x + 1]) >>> CHUNK_BITS);
+        if (chunk == (int) ((rowBase + sorted[m - 1]) >>> CHUNK_BITS)) {
+            return SimKernels.KERNELS.gatherSum(chunks[chunk], (int) (rowBase - ((long) chunk << CHUNK_BITS)), sorted, x + 1, m, sums);
+        }
+        double sum = 0; // the row crosses a chunk boundary
+        for (int y = x + 1; y < m; y++) {
+            double sim = get(i, sorted[y]);
+            sum += sim;
+            if (sums != null) sums[y] += sim;
+        }
+        return sum;
+    }
+    // positions of docs in increasing document order
+    private int[] sortedPositions(int[] docs) {
+        int m = docs.length;
+        long[] keys = new long[m];
+        for (int p = 0; p < m; p++) keys[p] = ((long) docs[p] << 32) | p;
+        Arrays.sort(keys);
+        int[] order = new int[m];
+        for (int x = 0; x < m; x++) order[x] = (int) keys[x];
+        return order;
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* builds the similarity matrix on a fork-join pool: the upper triangle is cut into
+ * tileSize x tileSize tiles, each tile is computed by one worker (restricting the posting
+ * scans to the tile's columns, so the accumulator stays in cache) and mirrored into the
+ * lower triangle by SimMatrix.set. Tiles write disjoint entries with the same formula as
+ * the serial path, so the result is bit-identical to CosineSimilarity.buildSims() */
+public class ParallelSimBuilder {
+
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private CosineSimilarity cosine;
+    private int D;
+    private int numThreads;
+    private int tileSize;
+    private int numTiles; // tiles per side
+
+    public ParallelSimBuilder(CosineSimilarity cosine, int D, int numThreads){
+        this(cosine, D, numThreads, DEFAULT_TILE_SIZE);
+    }
+    public ParallelSimBuilder(CosineSimilarity cosine, int D, int numThreads, int tileSize){
+        this.cosine = cosine;
+        this.D = D;
+        this.numThreads = numThreads;
+        this.tileSize = tileSize;
+        numTiles = (D + tileSize - 1) / tileSize;
+    }
+
+    public void buildSims(SimMatrix sims) {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new TileTask(cosine, sims, D, tileSize, numTiles, 0, numTiles * (numTiles + 1) / 2));
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+    // computes tile (tileRow, tileCol), tileRow <= tileCol, of the D x D matrix into sims and mirrors it
+    private static void computeTile(CosineSimilarity cosine, SimMatrix sims, int D, int tileSize, int tileRow, int tileCol, long[] dots) {
+        int rowEnd = Math.min(D, (tileRow + 1) * tileSize);
+        int colStart = tileCol * tileSize;
+        int colEnd = Math.min(D, colStart + tileSize);
+        float[] row = (sims instanceof PackedSimMatrix) ? new float[tileSize] : null; // packed rows are written whole
+        for (int i = tileRow * tileSize; i < rowEnd; i++) {
+            int from = Math.max(i, colStart); // diagonal tiles only cover j >= i
+            if (from >= colEnd) continue;
+            cosine.accumulateRow(i, from, colEnd, dots);
+            if (row != null) {
+                cosine.simRow(i, from, dots, colEnd - from, row);
+                ((PackedSimMatrix) sims).setRow(i, from, row, 0, colEnd - from);
+                Arrays.fill(dots, 0, colEnd - from, 0);
+                continue;
+            }
+            for (int j = from; j < colEnd; j++) {
+                sims.set(i, j, cosine.sim(i, j, dots[j - from]));
+                dots[j - from] = 0;
+            }
+        }
+    }
+
+    // tiles of the upper triangle are numbered row by row: (0,0), (0,1), ..., (1,1), (1,2), ...
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private CosineSimilarity cosine;
+        private SimMatrix sims;
+        private int D;
+        private int tileSize;
+        private int numTiles;
+        private int fromTile;
+        private int toTile;
+
+        TileTask(CosineSimilarity cosine, SimMatrix sims, int D, int tileSize, int numTiles, int fromTile, int toTile) {
+            this.cosine = cosine;
+            this.sims = sims;
+            this.D = D;
+            this.tileSize = tileSize;
+            this.numTiles = numTiles;
+            this.fromTile = fromTile;
+            this.toTile = toTile;
+        }
+        @Override
+        protected void compute() {
+            if (toTile - fromTile > 1) {
+                int mid = (fromTile + toTile) >>> 1;
+                invokeAll(new TileTask(cosine, sims, D, tileSize, numTiles, fromTile, mid),
+                          new TileTask(cosine, sims, D, tileSize, numTiles, mid, toTile));
+                return;
+            }
+            int tileRow = 0;
+            int rowTiles = numTiles; // tiles in the current tile row
+            int t = fromTile;
+            while (t >= rowTiles) {
+                t -= rowTiles;
+                tileRow++;
+                rowTiles--;
+            }
+            computeTile(cosine, sims, D, tileSize, tileRow, tileRow + t, new long[tileSize]);
+        }
+    }
+}
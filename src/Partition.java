@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* primitive clustering of documents 0..N-1 into clusters 0..capacity-1: a label per document
+ * plus one linked member list per cluster (head, tail and a shared next array), so a merge
+ * links the lists in O(1) and only relabels the absorbed cluster, a split is one pass over
+ * the cluster, and no Integer is ever boxed. Member lists keep their insertion order, as the
+ * ArrayList clusters did */
+public class Partition {
+
+    private int N;
+    private int[] labels; // cluster of each document, -1 if in none
+    private int[] next; // next document in the same cluster, -1 at the end
+    private int[] heads; // first member of each cluster, -1 if empty
+    private int[] tails;
+    private int[] sizes;
+
+    public Partition(int N, int capacity){
+        this.N = N;
+        labels = new int[N];
+        next = new int[N];
+        heads = new int[capacity];
+        tails = new int[capacity];
+        sizes = new int[capacity];
+        Arrays.fill(labels, -1);
+        Arrays.fill(next, -1);
+        Arrays.fill(heads, -1);
+        Arrays.fill(tails, -1);
+    }
+    // document i alone in cluster i
+    public static Partition singletons(int N) {
+        Partition partition = new Partition(N, N);
+        for (int i = 0; i < N; i++) partition.add(i, i);
+        return partition;
+    }
+    // clusters given by a label per document (-1 for none), added in document order
+    public static Partition fromLabels(int[] labels, int capacity) {
+        Partition partition = new Partition(labels.length, capacity);
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] >= 0) partition.add(labels[i], i);
+        }
+        return partition;
+    }
+
+    // makes room for documents up to N - 1, in no cluster yet; the per-document arrays grow by
+    // doubling, so getLabels() may be longer than getNumDocs() afterwards
+    public void grow(int N) {
+        if (N > labels.length) {
+            int oldLength = labels.length;
+            int length = Math.max(N, 2 * oldLength);
+            labels = Arrays.copyOf(labels, length);
+            next = Arrays.copyOf(next, length);
+            Arrays.fill(labels, oldLength, length, -1);
+            Arrays.fill(next, oldLength, length, -1);
+        }
+        this.N = Math.max(this.N, N);
+    }
+    // appends doc, which must not be in any cluster, to cluster c
+    public void add(int c, int doc) {
+        labels[doc] = c;
+        next[doc] = -1;
+        if (heads[c] == -1) heads[c] = doc;
+        else next[tails[c]] = doc;
+        tails[c] = doc;
+        sizes[c]++;
+    }
+    // appends the members of cluster from to cluster to, leaving from empty
+    public void merge(int to, int from) {
+        if (sizes[from] == 0) return;
+        for (int doc = heads[from]; doc != -1; doc = next[doc]) labels[doc] = to;
+        if (heads[to] == -1) heads[to] = heads[from];
+        else next[tails[to]] = heads[from];
+        tails[to] = tails[from];
+        sizes[to] += sizes[from];
+        heads[from] = -1;
+        tails[from] = -1;
+        sizes[from] = 0;
+    }
+    // moves the members of cluster c flagged in inSecond (indexed by position in c's member
+    // order) to the empty cluster target; both keep their relative order
+    public void split(int c, int target, boolean[] inSecond) {
+        int doc = heads[c];
+        heads[c] = -1;
+        tails[c] = -1;
+        sizes[c] = 0;
+        for (int k = 0; doc != -1; k++) {
+            int nextDoc = next[doc];
+            add(inSecond[k] ? target : c, doc);
+            doc = nextDoc;
+        }
+    }
+
+    /* Getters */
+
+    public int getNumDocs() {
+        return N;
+    }
+    public int getCapacity() {
+        return sizes.length;
+    }
+    public int size(int c) {
+        return sizes[c];
+    }
+    public int getLabel(int doc) {
+        return labels[doc];
+    }
+    public int[] getLabels() {
+        return labels;
+    }
+    // members of cluster c in list order, copied into out (which must be large enough); returns the count
+    public int getMembers(int c, int[] out) {
+        int k = 0;
+        for (int doc = heads[c]; doc != -1; doc = next[doc]) out[k++] = doc;
+        return k;
+    }
+    public int[] getMembers(int c) {
+        int[] members = new int[sizes[c]];
+        getMembers(c, members);
+        return members;
+    }
+    public int[] getSortedMembers(int c) {
+        int[] members = getMembers(c);
+        Arrays.sort(members);
+        return members;
+    }
+    // the nonempty clusters in index order, members sorted, in the ArrayList shape used by getClusters()
+    public ArrayList<ArrayList<Integer>> toClusters() {
+        ArrayList<ArrayList<Integer>> clusters = new ArrayList<ArrayList<Integer>>();
+        for (int c = 0; c < sizes.length; c++) {
+            if (sizes[c] == 0) continue;
+            ArrayList<Integer> cluster = new ArrayList<Integer>(sizes[c]);
+            for (int doc : getSortedMembers(c)) cluster.add(doc);
+            clusters.add(cluster);
+        }
+        return clusters;
+    }
+}
@@ -0,0 +1,25 @@
+/* plain loops for SimKernels, used when the vector API is not available */
+public class ScalarSimKernels implements SimKernels {
+
+    public void cosineRow(long[] dots, double magnitudeI, double[] magnitudes, int from, int length, float[] out, int outOffset) {
+        for (int t = 0; t < length; t++) {
+            out[outOffset + t] = (dots[t] == 0) ? 0 : (float) ((dots[t] / magnitudeI) / magnitudes[from + t]);
+        }
+    }
+    public double gatherSum(float[] values, int offset, int[] indices, int from, int to, double[] sums) {
+        double sum = 0;
+        if (sums == null) {
+            for (int k = from; k < to; k++) sum += values[offset + indices[k]];
+            return sum;
+        }
+        for (int k = from; k < to; k++) {
+            double value = values[offset + indices[k]];
+            sum += value;
+            sums[k] += value;
+        }
+        return sum;
+    }
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/* SimHash (random hyperplane) sketches with LSH banding, to find similar document pairs
+ * without scoring all D^2 of them. Bit b of a document's numBits-bit signature is the sign of
+ * its count vector projected on a random hyperplane, so two documents at angle theta
+ * disagree on a bit with probability theta / pi. The signature is cut into numBands bands of
+ * numBits / numBands bits, and documents whose bits agree on some band become candidates:
+ * more bits per band is more selective, more bands raise recall. Only candidates get their
+ * exact cosine similarity. Hyperplanes are derived from a hash of (seed, word), so nothing of
+ * size W * numBits is stored. A bucket of more than maxBucketSize documents (many near-duplicates,
+ * or too few bits per band) would add pairs quadratically, so its members are shuffled and each
+ * is paired with the next maxBucketSize - 1 only: per band, every document still gets that many
+ * candidates and the pairs grow linearly with the bucket */
+public class SimHashLsh {
+
+    public static final long DEFAULT_SEED = 0x5eed5eedL;
+    public static final int DEFAULT_MAX_BUCKET_SIZE = 256;
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8; // largest array the JVM reliably allocates
+
+    private SparseDocs docs;
+    private int D;
+    private int numBits;
+    private int numBands;
+    private int bandBits;
+    private int words; // longs per signature
+    private long seed;
+    private int maxBucketSize;
+    private long[] signatures; // document i at i * words
+    private long[] pairs; // candidate pairs (i << 32) | j, i < j, sorted
+    private int numPairs;
+
+    public SimHashLsh(SparseDocs docs, int numBits, int numBands){
+        this(docs, numBits, numBands, DEFAULT_SEED);
+    }
+    public SimHashLsh(SparseDocs docs, int numBits, int numBands, long seed){
+        this(docs, numBits, numBands, seed, DEFAULT_MAX_BUCKET_SIZE);
+    }
+    public SimHashLsh(SparseDocs docs, int numBits, int numBands, long seed, int maxBucketSize){
+        if (numBands <= 0 || numBits % numBands != 0 || numBits / numBands > 32) {
+            throw new IllegalArgumentException(numBits + " bits cannot be cut into " + numBands + " bands of at most 32 bits");
+        }
+        if (maxBucketSize < 2) throw new IllegalArgumentException("buckets of " + maxBucketSize + " documents pair nothing");
+        this.docs = docs;
+        D = docs.getNumDocs();
+        this.numBits = numBits;
+        this.numBands = numBands;
+        bandBits = numBits / numBands;
+        words = (numBits + 63) / 64;
+        this.seed = seed;
+        this.maxBucketSize = maxBucketSize;
+        computeSignatures();
+        findCandidates();
+    }
+    private void computeSignatures() {
+        signatures = new long[D * words];
+        int[] wordIDs = docs.getWordIDs();
+        int[] counts = docs.getCounts();
+        double[] projections = new double[numBits];
+        for (int i = 0; i < D; i++) {
+            Arrays.fill(projections, 0);
+            for (int k = docs.rowStart(i); k < docs.rowEnd(i); k++) {
+                for (int b = 0; b < numBits; b++) projections[b] += counts[k] * hyperplane(wordIDs[k], b);
+            }
+            for (int b = 0; b < numBits; b++) {
+                if (projections[b] > 0) signatures[i * words + (b >>> 6)] |= 1L << (b & 63);
+            }
+        }
+    }
+    // component along word of hyperplane b: roughly standard normal (the sum of the four 16-bit
+    // uniforms of a SplitMix64 hash, centred and scaled), so the hyperplanes are close to isotropic
+    private double hyperplane(int word, int b) {
+        long z = seed + ((long) word * numBits + b + 1) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z ^= z >>> 31;
+        long sum = (z & 0xffff) + ((z >>> 16) & 0xffff) + ((z >>> 32) & 0xffff) + (z >>> 48);
+        return (sum - 2 * 65535.0) / (65535.0 * 0.5773502691896258); // Irwin-Hall(4): variance 1/3
+    }
+    private long bandKey(int doc, int band) {
+        int start = band * bandBits;
+        int w = start >>> 6;
+        int offset = start & 63;
+        long bits = signatures[doc * words + w] >>> offset;
+        if (offset + bandBits > 64) bits |= signatures[doc * words + w + 1] << (64 - offset);
+        return bits & ((1L << bandBits) - 1);
+    }
+    // documents sharing a band key are candidates; per band, (key << 32) | doc sorts into buckets
+    private void findCandidates() {
+        long[] keys = new long[D];
+        pairs = new long[Math.max(16, D)];
+        numPairs = 0;
+        Random random = new Random(seed);
+        for (int band = 0; band < numBands; band++) {
+            int n = 0;
+            for (int i = 0; i < D; i++) {
+                if (docs.rowLength(i) > 0) keys[n++] = (bandKey(i, band) << 32) | i; // empty documents match nothing
+            }
+            Arrays.sort(keys, 0, n);
+            for (int start = 0; start < n; ) {
+                int end = start + 1;
+                while (end < n && (keys[end] >>> 32) == (keys[start] >>> 32)) end++;
+                if (end - start > maxBucketSize) addSampledPairs(keys, start, end, random);
+                else {
+                    for (int a = start; a < end; a++) {
+                        for (int b = a + 1; b < end; b++) addPair((keys[a] << 32) | (keys[b] & 0xffffffffL));
+                    }
+                }
+                start = end;
+            }
+            // deduplicate as we go so repeated bucket mates don't pile up
+            if (band == numBands - 1 || numPairs > pairs.length / 2) compactPairs();
+        }
+    }
+    // pairs each member of the large bucket keys[start..end) with the next maxBucketSize - 1 in a
+    // random order (wrapping around), instead of with all of them
+    private void addSampledPairs(long[] keys, int start, int end, Random random) {
+        int size = end - start;
+        for (int a = size - 1; a > 0; a--) {
+            int b = random.nextInt(a + 1);
+            long key = keys[start + a];
+            keys[start + a] = keys[start + b];
+            keys[start + b] = key;
+        }
+        for (int a = 0; a < size; a++) {
+            int i = (int) keys[start + a];
+            for (int offset = 1; offset < maxBucketSize; offset++) {
+                int j = (int) keys[start + (a + offset) % size];
+                addPair(((long) Math.min(i, j) << 32) | Math.max(i, j));
+            }
+        }
+    }
+    private void addPair(long pair) {
+        if (numPairs == pairs.length) {
+            if (pairs.length == MAX_ARRAY) compactPairs();
+            if (numPairs == MAX_ARRAY) {
+                throw new IllegalStateException("more than " + MAX_ARRAY + " candidate pairs; use more bits per band or fewer bands");
+            }
+            if (numPairs == pairs.length) pairs = Arrays.copyOf(pairs, (int) Math.min(MAX_ARRAY, 2L * numPairs));
+        }
+        pairs[numPairs++] = pair;
+    }
+    private void compactPairs() {
+        Arrays.sort(pairs, 0, numPairs);
+        int n = 0;
+        for (int p = 0; p < numPairs; p++) {
+            if (n == 0 || pairs[p] != pairs[n - 1]) pairs[n++] = pairs[p];
+        }
+        numPairs = n;
+    }
+
+    /* Getters */
+
+    public int getNumBits() {
+        return numBits;
+    }
+    public int getNumBands() {
+        return numBands;
+    }
+    public int getMaxBucketSize() {
+        return maxBucketSize;
+    }
+    public long[] getSignatures() {
+        return signatures;
+    }
+    public int getNumCandidates() {
+        return numPairs;
+    }
+    // candidate pairs (i << 32) | j with i < j, sorted; only the first getNumCandidates() are used
+    public long[] getCandidates() {
+        return pairs;
+    }
+    public boolean isCandidate(int i, int j) {
+        long pair = ((long) Math.min(i, j) << 32) | Math.max(i, j);
+        return Arrays.binarySearch(pairs, 0, numPairs, pair) >= 0;
+    }
+    // cosine similarity estimated from the signatures alone: cos(pi * hamming / numBits)
+    public double estimateSim(int i, int j) {
+        int hamming = 0;
+        for (int w = 0; w < words; w++) hamming += Long.bitCount(signatures[i * words + w] ^ signatures[j * words + w]);
+        return Math.cos(Math.PI * hamming / numBits);
+    }
+    // exact cosine similarity of every candidate pair, in getCandidates() order
+    public double[] getCandidateSims(CosineSimilarity cosine) {
+        double[] sims = new double[numPairs];
+        for (int p = 0; p < numPairs; p++) {
+            int i = (int) (pairs[p] >>> 32);
+            int j = (int) pairs[p];
+            sims[p] = cosine.sim(i, j, (long) docs.dot(i, j));
+        }
+        return sims;
+    }
+    // k-nearest-neighbour graph restricted to the candidates, with exact similarities
+    public KnnGraph buildKnnGraph(CosineSimilarity cosine, int k) {
+        float[] selfSims = new float[D];
+        for (int i = 0; i < D; i++) selfSims[i] = (float) cosine.sim(i, i, (long) docs.dot(i, i));
+        return new KnnGraph(D, k, pairs, getCandidateSims(cosine), numPairs, selfSims);
+    }
+
+    /* Testing */
+
+    // recall and speed of a few (bits, bands) settings against the exact matrix on NIPS;
+    // optional arguments: bits bands [k]
+    public static void main(String[] args) {
+        int k = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", 1, SimMatrix.Storage.PACKED, null);
+        int D = d.getNumDocs();
+        CosineSimilarity cosine = new CosineSimilarity(d.getDocs(), d.getInvertedIndex(), d.getMagnitudes());
+        long start = System.nanoTime();
+        SimMatrix exact = new PackedSimMatrix(D);
+        cosine.buildSims(exact);
+        long exactNanos = System.nanoTime() - start;
+        KnnGraph exactGraph = new KnnGraph(cosine, D, k);
+        System.out.println("Exact buildDocSims: " + (exactNanos / 1000000) + " ms for " + ((long) D * (D - 1) / 2) + " pairs");
+
+        double[] thresholds = { 0.3, 0.5, 0.7 };
+        long[] numAbove = new long[thresholds.length];
+        for (int i = 0; i < D; i++) {
+            for (int j = i + 1; j < D; j++) {
+                for (int t = 0; t < thresholds.length; t++) {
+                    if (exact.get(i, j) >= thresholds[t]) numAbove[t]++;
+                }
+            }
+        }
+        int[][] settings = { { 128, 16 }, { 128, 8 }, { 256, 16 }, { 256, 8 }, { 512, 16 } };
+        if (args.length > 1) settings = new int[][] { { Integer.parseInt(args[0]), Integer.parseInt(args[1]) } };
+        for (int[] setting : settings) {
+            start = System.nanoTime();
+            SimHashLsh lsh = new SimHashLsh(d.getDocs(), setting[0], setting[1]);
+            KnnGraph graph = lsh.buildKnnGraph(cosine, k);
+            long lshNanos = System.nanoTime() - start;
+            long[] numFound = new long[thresholds.length];
+            for (int i = 0; i < D; i++) {
+                for (int j = i + 1; j < D; j++) {
+                    if (!lsh.isCandidate(i, j)) continue;
+                    for (int t = 0; t < thresholds.length; t++) {
+                        if (exact.get(i, j) >= thresholds[t]) numFound[t]++;
+                    }
+                }
+            }
+            // fraction of the exact k-nearest-neighbour edges that the candidate graph also has
+            long numEdgesFound = 0;
+            for (int i = 0; i < D; i++) {
+                for (int e = exactGraph.rowStart(i); e < exactGraph.rowEnd(i); e++) {
+                    if (graph.get(i, exactGraph.getNeighbours()[e]) > 0) numEdgesFound++;
+                }
+            }
+            System.out.print(setting[0] + " bits, " + setting[1] + " bands: " + (lshNanos / 1000000) + " ms, " + lsh.getNumCandidates() +
+                             " candidates (" + (100.0 * lsh.getNumCandidates() / ((long) D * (D - 1) / 2)) + "% of pairs), recall");
+            for (int t = 0; t < thresholds.length; t++) {
+                System.out.print(" @" + thresholds[t] + " " + ((numAbove[t] == 0) ? 1 : (double) numFound[t] / numAbove[t]));
+            }
+            System.out.println(", " + k + "-NN edge recall " + ((double) numEdgesFound / exactGraph.getNumEdges()));
+        }
+    }
+}
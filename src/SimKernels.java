@@ -0,0 +1,39 @@
+/* the two inner loops over contiguous similarity rows: turning a row of dot products into
+ * cosine similarities, and summing a row at the columns of a cluster's members. KERNELS is
+ * VectorSimKernels (jdk.incubator.vector) when that module is present, i.e. the JVM was started
+ * with --add-modules jdk.incubator.vector, and the hardware has wide enough vectors; otherwise,
+ * or with -Dkernels=scalar, it is ScalarSimKernels. Both compute each similarity with the same
+ * IEEE operations, so matrices are bit-identical. gatherSum is not: the vector lanes add the
+ * terms in another order, which depends on the vector width, so sums differ in the last bits
+ * between the scalar kernels, AVX2 and AVX-512. HDC's split costs are such sums (on packed
+ * storage), so a clustering with a given seed can break a near tie differently, and come out
+ * differently, on another kernel; only -Dkernels=scalar gives the same results on every machine */
+public interface SimKernels {
+
+    SimKernels KERNELS = select();
+
+    // out[outOffset + t] = cosine similarity of doc i and doc from + t, from their dot product
+    // dots[t] (as CosineSimilarity.sim: (dot / magnitudeI) / magnitudes[from + t], 0 for no overlap)
+    void cosineRow(long[] dots, double magnitudeI, double[] magnitudes, int from, int length, float[] out, int outOffset);
+    // sum of values[offset + indices[k]] for k in [from, to); if sums is not null, each term is
+    // also added to sums[k]
+    double gatherSum(float[] values, int offset, int[] indices, int from, int to, double[] sums);
+    // name for reports
+    String getName();
+
+    private static SimKernels select() {
+        if (!"scalar".equals(System.getProperty("kernels")) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            // by name, so this interface still links without the module
+            try {
+                Class<?> vectorKernels = Class.forName("VectorSimKernels");
+                if ((Boolean) vectorKernels.getMethod("isSupported").invoke(null)) {
+                    return (SimKernels) vectorKernels.getDeclaredConstructor().newInstance();
+                }
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+                // the module can't be linked: fall back
+            }
+        }
+        return new ScalarSimKernels();
+    }
+}
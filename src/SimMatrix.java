@@ -0,0 +1,20 @@
+/* symmetric document/cluster similarity matrix; implementations decide how (and where) the
+ * entries are stored, so callers never assume a full double[D][D] on the heap */
+public interface SimMatrix {
+
+    // storage choices for Data's similarity matrix
+    public enum Storage {
+        DENSE,  // double[n][n], the original layout (exact, largest)
+        PACKED, // upper triangle as floats on the heap
+        DIRECT, // upper triangle as floats in direct (off-heap) buffers
+        MAPPED, // upper triangle as floats in a memory-mapped temporary file
+        TILED   // float tiles in a memory-mapped temporary file, read through a small tile cache
+    }
+
+    public int size();
+    public double get(int i, int j);
+    // sets both (i, j) and (j, i)
+    public void set(int i, int j, double sim);
+    // independent matrix with the same storage and contents
+    public SimMatrix copy();
+}
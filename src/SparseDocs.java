@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+/* compressed-sparse-row (CSR) store of the document vectors: the nonzero entries of
+ * document d are at positions rowOffsets[d] (inclusive) to rowOffsets[d + 1] (exclusive)
+ * of wordIDs / counts, sorted by wordID, so memory scales with NNZ rather than D * W */
+public class SparseDocs {
+
+    private int D;
+    private int W;
+    private int NNZ;
+    private int[] rowOffsets; // at least D + 1 entries (appends leave room to grow)
+    private int[] wordIDs;
+    private int[] counts;
+
+    public SparseDocs(int D, int W, int[] rowOffsets, int[] wordIDs, int[] counts){
+        this.D = D;
+        this.W = W;
+        this.NNZ = rowOffsets[D];
+        this.rowOffsets = rowOffsets;
+        this.wordIDs = wordIDs;
+        this.counts = counts;
+    }
+
+    // builds the store from the first nnz (docID, wordID, count) triplets, which may come in any order;
+    // IDs are 0-based, zero counts are dropped and, as with the old dense array, a repeated entry overwrites
+    public static SparseDocs fromTriplets(int D, int W, int[] tripletDocIDs, int[] tripletWordIDs, int[] tripletCounts, int nnz) {
+        // counting sort by docID (stable, so file order is kept within each row)
+        int[] rowOffsets = new int[D + 1];
+        for (int i = 0; i < nnz; i++) {
+            if (tripletCounts[i] != 0) rowOffsets[tripletDocIDs[i] + 1] += 1;
+        }
+        for (int i = 0; i < D; i++) {
+            rowOffsets[i + 1] += rowOffsets[i];
+        }
+        int[] next = Arrays.copyOf(rowOffsets, D);
+        int[] wordIDs = new int[rowOffsets[D]];
+        int[] counts = new int[rowOffsets[D]];
+        for (int i = 0; i < nnz; i++) {
+            if (tripletCounts[i] == 0) continue;
+            int pos = next[tripletDocIDs[i]]++;
+            wordIDs[pos] = tripletWordIDs[i];
+            counts[pos] = tripletCounts[i];
+        }
+        // sort each row by wordID; docword files are normally already sorted, so only check in that case
+        boolean compact = false;
+        for (int i = 0; i < D; i++) {
+            if (!isStrictlyIncreasing(wordIDs, rowOffsets[i], rowOffsets[i + 1])) {
+                sortRow(wordIDs, counts, rowOffsets[i], rowOffsets[i + 1]);
+                compact = true;
+            }
+        }
+        if (!compact) return new SparseDocs(D, W, rowOffsets, wordIDs, counts);
+        // sorting may have left repeated wordIDs next to each other: keep the last one of each
+        int[] compactOffsets = new int[D + 1];
+        int pos = 0;
+        for (int i = 0; i < D; i++) {
+            compactOffsets[i] = pos;
+            for (int k = rowOffsets[i]; k < rowOffsets[i + 1]; k++) {
+                if (k + 1 < rowOffsets[i + 1] && wordIDs[k + 1] == wordIDs[k]) continue;
+                wordIDs[pos] = wordIDs[k];
+                counts[pos] = counts[k];
+                pos++;
+            }
+        }
+        compactOffsets[D] = pos;
+        return new SparseDocs(D, W, compactOffsets, Arrays.copyOf(wordIDs, pos), Arrays.copyOf(counts, pos));
+    }
+    private static boolean isStrictlyIncreasing(int[] a, int from, int to) {
+        for (int k = from + 1; k < to; k++) {
+            if (a[k] <= a[k - 1]) return false;
+        }
+        return true;
+    }
+    // stable sort of one row by wordID: key is wordID in the high bits and position in the low bits
+    private static void sortRow(int[] wordIDs, int[] counts, int from, int to) {
+        long[] keys = new long[to - from];
+        for (int k = from; k < to; k++) {
+            keys[k - from] = ((long) wordIDs[k] << 32) | (k - from);
+        }
+        Arrays.sort(keys);
+        int[] rowCounts = Arrays.copyOfRange(counts, from, to);
+        for (int k = from; k < to; k++) {
+            wordIDs[k] = (int) (keys[k - from] >>> 32);
+            counts[k] = rowCounts[(int) keys[k - from]];
+        }
+    }
+
+    // appends the documents of more (same vocabulary or a prefix of it) as documents D..; the
+    // arrays grow by doubling, so repeated appends cost amortized O(NNZ of the new documents)
+    public void append(SparseDocs more) {
+        if (more.W > W) throw new IllegalArgumentException("documents over " + more.W + " words cannot join a vocabulary of " + W);
+        int newD = D + more.D;
+        int newNNZ = NNZ + more.NNZ;
+        if (newD + 1 > rowOffsets.length) rowOffsets = Arrays.copyOf(rowOffsets, Math.max(newD + 1, 2 * rowOffsets.length));
+        if (newNNZ > wordIDs.length) {
+            int capacity = Math.max(newNNZ, 2 * wordIDs.length);
+            wordIDs = Arrays.copyOf(wordIDs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        for (int i = 1; i <= more.D; i++) rowOffsets[D + i] = NNZ + more.rowOffsets[i];
+        System.arraycopy(more.wordIDs, 0, wordIDs, NNZ, more.NNZ);
+        System.arraycopy(more.counts, 0, counts, NNZ, more.NNZ);
+        D = newD;
+        NNZ = newNNZ;
+    }
+
+    /* Getters */
+
+    public int getNumDocs() {
+        return D;
+    }
+    public int getNumWords() {
+        return W;
+    }
+    public int getNNZ() {
+        return NNZ;
+    }
+    public int[] getRowOffsets() {
+        return rowOffsets;
+    }
+    public int[] getWordIDs() {
+        return wordIDs;
+    }
+    public int[] getCounts() {
+        return counts;
+    }
+    public int rowStart(int doc) {
+        return rowOffsets[doc];
+    }
+    public int rowEnd(int doc) {
+        return rowOffsets[doc + 1];
+    }
+    public int rowLength(int doc) {
+        return rowOffsets[doc + 1] - rowOffsets[doc];
+    }
+    // count of word in doc, i.e. the old docs[doc][word]
+    public int getCount(int doc, int word) {
+        int k = Arrays.binarySearch(wordIDs, rowOffsets[doc], rowOffsets[doc + 1], word);
+        return (k >= 0) ? counts[k] : 0;
+    }
+
+    /* Utility methods */
+
+    // Euclidean length of the document vector
+    public double magnitude(int doc) {
+        double sumSquares = 0;
+        for (int k = rowOffsets[doc]; k < rowOffsets[doc + 1]; k++) {
+            sumSquares += (counts[k] * counts[k]);
+        }
+        return Math.sqrt(sumSquares);
+    }
+    // dot product of two document vectors by merging their sorted rows
+    public double dot(int docOne, int docTwo) {
+        double dotProduct = 0;
+        int k = rowOffsets[docOne];
+        int kEnd = rowOffsets[docOne + 1];
+        int l = rowOffsets[docTwo];
+        int lEnd = rowOffsets[docTwo + 1];
+        while (k < kEnd && l < lEnd) {
+            if (wordIDs[k] < wordIDs[l]) k++;
+            else if (wordIDs[k] > wordIDs[l]) l++;
+            else {
+                dotProduct += (counts[k] * counts[l]);
+                k++;
+                l++;
+            }
+        }
+        return dotProduct;
+    }
+}
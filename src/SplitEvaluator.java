@@ -0,0 +1,15 @@
+/* evaluates candidate two-way splits of one cluster for HDC. Trials index the cluster by
+ * position, in the member order the evaluator was built with; evaluate() is called from
+ * several trial threads at once, so implementations keep no per-call state (the lookup count
+ * aside, which is thread-safe) */
+public interface SplitEvaluator {
+
+    // similarity sum of the whole cluster, self-pairs included
+    double getTotalSum();
+    // for the split putting the members flagged in inSecond (sizeTwo of them) in the second half,
+    // returns the cut sum between the halves and stores the intra similarity sums of the halves,
+    // self-pairs included, in simSums
+    double evaluate(boolean[] inSecond, int sizeTwo, double[] simSums);
+    // similarities read so far, by the constructor and all evaluate() calls
+    long getNumLookups();
+}
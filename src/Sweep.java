@@ -0,0 +1,185 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* runs the experiment grid (k x iterations x normalize x seed) on one loaded corpus instead of one
+ * Data run per configuration: the corpus and its similarities are built once, HAC runs once to the
+ * full hierarchy and every k is a cut of its dendrogram, and the HDC runs share a bounded thread
+ * pool with it. Each configuration gets the file a separate Data run would have printed,
+ * data_<k>_<iterations>_<normalize>_iter<r>.txt with r counting the seeds from 1, and one summary
+ * table lists them all */
+public class Sweep {
+
+    private Data d;
+    private int[] ks;
+    private int[] iterationCounts;
+    private boolean[] normalizes;
+    private long[] seeds;
+    private int numThreads;
+    private File outputDir;
+    private long hacNanos; // the shared full-hierarchy run
+
+    public Sweep(Data d, int[] ks, int[] iterationCounts, boolean[] normalizes, long[] seeds, int numThreads, File outputDir){
+        this.d = d;
+        this.ks = ks;
+        this.iterationCounts = iterationCounts;
+        this.normalizes = normalizes;
+        this.seeds = seeds;
+        this.numThreads = numThreads;
+        this.outputDir = outputDir;
+    }
+
+    // one HDC run of the grid, and what the summary needs of it
+    private class Run implements Callable<HDC> {
+        private int k;
+        private int numIterations;
+        private boolean normalize;
+        private int seedIndex;
+        private Future<HDC> hdc;
+        private long hdcNanos;
+
+        Run(int k, int numIterations, boolean normalize, int seedIndex) {
+            this.k = k;
+            this.numIterations = numIterations;
+            this.normalize = normalize;
+            this.seedIndex = seedIndex;
+        }
+        public HDC call() {
+            long start = System.nanoTime();
+            // its trials run in this pool thread; the pool itself is the parallelism
+            HDC result = new HDC(d, k, numIterations, normalize, seeds[seedIndex], (ExecutorService) null);
+            hdcNanos = System.nanoTime() - start;
+            return result;
+        }
+        String getFilename() {
+            return "data_" + k + "_" + numIterations + "_" + normalize + "_iter" + (seedIndex + 1) + ".txt";
+        }
+    }
+
+    // runs the grid and writes the per-configuration files and sweep_summary.txt into outputDir
+    public void run() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            // the hierarchy is the longest job, so it is queued first; its smallest cut bounds the merges
+            int minK = ks[0];
+            for (int k : ks) minK = Math.min(minK, k);
+            final int numClustersLeft = minK;
+            Future<HAC> hierarchy = executor.submit(new Callable<HAC>() {
+                public HAC call() {
+                    long start = System.nanoTime();
+                    HAC hac = new HAC(d, numClustersLeft, true);
+                    hacNanos = System.nanoTime() - start;
+                    return hac;
+                }
+            });
+            ArrayList<Run> runs = new ArrayList<Run>();
+            for (int k : ks) {
+                for (int numIterations : iterationCounts) {
+                    for (boolean normalize : normalizes) {
+                        for (int s = 0; s < seeds.length; s++) {
+                            Run run = new Run(k, numIterations, normalize, s);
+                            run.hdc = executor.submit(run);
+                            runs.add(run);
+                        }
+                    }
+                }
+            }
+            HAC fullHierarchy = get(hierarchy);
+            HashMap<Integer, HAC> cuts = new HashMap<Integer, HAC>();
+            for (int k : ks) {
+                if (!cuts.containsKey(k)) cuts.put(k, new HAC(fullHierarchy, k));
+            }
+            PrintStream summary = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(outputDir, "sweep_summary.txt"))));
+            try {
+                summary.println("k\titerations\tnormalize\tseed\thacAvgSim\thdcAvgSim\tagreement\trandIndex\tadjustedRandIndex\tnmi\thdcMillis\tfile");
+                // written in grid order as each run finishes
+                for (Run run : runs) {
+                    HAC hac = cuts.get(run.k);
+                    HDC hdc = get(run.hdc);
+                    PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(outputDir, run.getFilename()))));
+                    try {
+                        d.printResults(out, hac, hdc);
+                    }
+                    finally {
+                        out.close();
+                    }
+                    ClusteringComparison comparison = d.compareClusterings(hac.getPartition(), hdc.getPartition());
+                    summary.println(run.k + "\t" + run.numIterations + "\t" + run.normalize + "\t" + hdc.getSeed() + "\t" +
+                                    average(hac.getAvgClusterSims()) + "\t" + average(hdc.getAvgClusterSims()) + "\t" +
+                                    (comparison.getPositiveAgreement() + comparison.getNegativeAgreement()) + "\t" +
+                                    comparison.getRandIndex() + "\t" + comparison.getAdjustedRandIndex() + "\t" +
+                                    comparison.getNormalizedMutualInformation() + "\t" + (run.hdcNanos / 1000000) + "\t" + run.getFilename());
+                }
+                summary.println("# HAC full hierarchy (shared by every k): " + (hacNanos / 1000000) + " ms");
+            }
+            finally {
+                summary.close();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    private static <T> T get(Future<T> result) {
+        try {
+            return result.get();
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+    // average of the average cluster similarities, as Data.printResults reports it
+    private static double average(ArrayList<Double> avgClusterSims) {
+        double avgSim = 0;
+        for (int i = 0; i < avgClusterSims.size(); i++) {
+            avgSim += avgClusterSims.get(i);
+        }
+        return avgSim / avgClusterSims.size();
+    }
+
+    /* Testing */
+
+    public static void main(String[] args) throws IOException {
+        // optional arguments (comma-separated lists): k, iterations, normalize, seeds, then threads and output directory;
+        // the defaults are the grid of output/
+        int[] ks = parseInts((args.length > 0) ? args[0] : "5,10,50,100,500,1000");
+        int[] iterationCounts = parseInts((args.length > 1) ? args[1] : "5");
+        String[] normalizeArgs = ((args.length > 2) ? args[2] : "true,false").split(",");
+        boolean[] normalizes = new boolean[normalizeArgs.length];
+        for (int i = 0; i < normalizes.length; i++) normalizes[i] = Boolean.parseBoolean(normalizeArgs[i]);
+        String[] seedArgs = ((args.length > 3) ? args[3] : "1,2,3,4,5").split(",");
+        long[] seeds = new long[seedArgs.length];
+        for (int i = 0; i < seeds.length; i++) seeds[i] = Long.parseLong(seedArgs[i]);
+        int numThreads = (args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        File outputDir = new File((args.length > 5) ? args[5] : ".");
+        outputDir.mkdirs();
+
+        Data d = new Data("docword.nips.txt", "vocab.nips.txt", numThreads, SimMatrix.Storage.DENSE, System.getProperty("snapshot"));
+        new Sweep(d, ks, iterationCounts, normalizes, seeds, numThreads, outputDir).run();
+        Metrics metrics = d.getMetrics();
+        metrics.setInfo("numDocs", d.getNumDocs());
+        metrics.setInfo("numThreads", numThreads);
+        metrics.setInfo("numRuns", ks.length * iterationCounts.length * normalizes.length * seeds.length);
+        metrics.writeJson(new File(outputDir, "sweep_metrics.json").getPath());
+        System.out.println("Sweep written to " + outputDir);
+    }
+    private static int[] parseInts(String list) {
+        String[] values = list.split(",");
+        int[] ints = new int[values.length];
+        for (int i = 0; i < ints.length; i++) ints[i] = Integer.parseInt(values[i]);
+        return ints;
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/* similarity matrix stored on disk as tileSize x tileSize float tiles, memory-mapped, with a
+ * small LRU cache of tiles on the heap. Tile (a, b), a <= b, holds rows a * tileSize.. and
+ * columns b * tileSize.. (diagonal tiles are stored in full); the upper triangle of tiles is
+ * laid out row by row. Reads go through the cache, and callers that walk a cluster tile by tile
+ * (getRowSums) read each tile once per pass instead of once per row. The cache is keyed by
+ * primitive tile number, and each thread also remembers the last few tiles it read, so runs of
+ * get() calls on the same tiles (HDC's split scans) neither take the cache's lock nor allocate.
+ * Those recent tiles can outlive their eviction from the cache, so they count against
+ * maxCachedTiles: every thread that reads takes its RECENT_TILES slots from the cache's
+ * capacity (fewer, down to none, so the cache keeps one), and the heap holds at most
+ * maxCachedTiles tiles however large the matrix is and however many threads read it */
+public class TiledSimMatrix implements SimMatrix {
+
+    private static final int SEGMENT_BITS = 28; // bytes per mapping; a power-of-two tile never straddles two
+    private static final int RECENT_TILES = 4; // per thread; a split scan alternates between two centroids' tiles
+
+    private int n;
+    private int tileSize;
+    private int tileShift; // log2(tileSize)
+    private int numTiles; // tiles per side
+    private long tileBytes;
+    private File file;
+    private long numBytes;
+    private ByteBuffer[] segments; // mapped on first use, so huge files don't exhaust the process's mappings
+    private TileCache cache;
+    private int maxCachedTiles; // the cache's and the threads' recent tiles together
+    private int numPinned; // recent-tile slots handed to threads, taken from the cache
+    private long numHits;
+    private long numMisses;
+    private volatile long writeEpoch; // bumped by every write, so no thread keeps reading a recent tile a write has changed
+    private ThreadLocal<RecentTiles> recentTiles = new ThreadLocal<RecentTiles>() {
+        protected RecentTiles initialValue() {
+            return newRecentTiles();
+        }
+    };
+
+    // tiles mapped read-write onto file (extended as needed; existing contents are kept)
+    public TiledSimMatrix(int n, int tileSize, File file, int maxCachedTiles) throws IOException {
+        if (Integer.bitCount(tileSize) != 1 || 4L * tileSize * tileSize > (1L << SEGMENT_BITS)) {
+            throw new IllegalArgumentException("tile size " + tileSize + " must be a power of two of at most 8192");
+        }
+        this.n = n;
+        this.tileSize = tileSize;
+        tileShift = Integer.numberOfTrailingZeros(tileSize);
+        numTiles = (n + tileSize - 1) / tileSize;
+        tileBytes = 4L * tileSize * tileSize;
+        this.file = file;
+        this.maxCachedTiles = Math.max(1, maxCachedTiles);
+        cache = new TileCache(this.maxCachedTiles);
+        numBytes = tileBytes * numTiles * (numTiles + 1) / 2;
+        segments = new ByteBuffer[(int) ((numBytes + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS)];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < numBytes) raf.setLength(numBytes);
+        }
+        finally {
+            raf.close();
+        }
+    }
+    // matrix on a new temporary file that is deleted on exit
+    public static TiledSimMatrix createTemp(int n, int tileSize, int maxCachedTiles) throws IOException {
+        File file = File.createTempFile("tiles", ".bin");
+        file.deleteOnExit();
+        return new TiledSimMatrix(n, tileSize, file, maxCachedTiles);
+    }
+    // largest tile size whose tile fits an eighth of heapBudget bytes (the rest is left to the cache
+    // and to whoever builds or reads the matrix)
+    public static int tileSizeFor(long heapBudget) {
+        int tileSize = 64;
+        while (tileSize < 8192 && 4L * (2 * tileSize) * (2 * tileSize) <= heapBudget / 8) tileSize *= 2;
+        return tileSize;
+    }
+
+    private synchronized ByteBuffer segment(int s) {
+        if (segments[s] == null) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    long position = (long) s << SEGMENT_BITS;
+                    long length = Math.min(1L << SEGMENT_BITS, numBytes - position);
+                    segments[s] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, length).order(ByteOrder.nativeOrder());
+                }
+                finally {
+                    raf.close(); // mappings stay valid after the channel is closed
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return segments[s];
+    }
+    private long tileNumber(int a, int b) {
+        return (long) a * numTiles - (long) a * (a - 1) / 2 + (b - a);
+    }
+    // the tile's bytes, as a view of its mapping
+    private FloatBuffer tileBuffer(long tile) {
+        long position = tile * tileBytes;
+        ByteBuffer segment = segment((int) (position >>> SEGMENT_BITS)).duplicate();
+        int offset = (int) (position & ((1L << SEGMENT_BITS) - 1));
+        segment.position(offset);
+        segment.limit(offset + (int) tileBytes);
+        return segment.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+    // tile (a, b), a <= b, from the cache or read from the mapping; callers must not modify it
+    public float[] getTile(int a, int b) {
+        return getTile(tileNumber(a, b));
+    }
+    private synchronized float[] getTile(long tile) {
+        float[] values = cache.get(tile);
+        if (values != null) {
+            numHits++;
+            return values;
+        }
+        numMisses++;
+        values = new float[tileSize * tileSize];
+        tileBuffer(tile).get(values);
+        cache.put(tile, values);
+        return values;
+    }
+    // writes a whole tile (a, b), a <= b, row-major, e.g. from a block-pair build
+    public synchronized void putTile(int a, int b, float[] values) {
+        long tile = tileNumber(a, b);
+        tileBuffer(tile).put(values, 0, tileSize * tileSize);
+        float[] cached = cache.peek(tile);
+        if (cached != null) System.arraycopy(values, 0, cached, 0, cached.length);
+        writeEpoch++;
+    }
+    // a thread's recent tiles, their slots taken from the cache so the two stay within maxCachedTiles
+    private synchronized RecentTiles newRecentTiles() {
+        int slots = Math.max(0, Math.min(RECENT_TILES, maxCachedTiles - 1 - numPinned));
+        numPinned += slots;
+        cache.setCapacity(maxCachedTiles - numPinned);
+        return new RecentTiles(slots);
+    }
+    // tile from this thread's recent tiles, or else from the cache
+    private float[] getRecentTile(long tile) {
+        RecentTiles recent = recentTiles.get();
+        if (recent.tiles.length == 0) return getTile(tile); // the budget had no slots left for this thread
+        long epoch = writeEpoch;
+        if (recent.epoch != epoch) {
+            Arrays.fill(recent.tiles, -1);
+            Arrays.fill(recent.values, null);
+            recent.epoch = epoch;
+        }
+        for (int r = 0; r < recent.tiles.length; r++) {
+            if (recent.tiles[r] == tile) return recent.values[r];
+        }
+        float[] values = getTile(tile);
+        recent.tiles[recent.next] = tile;
+        recent.values[recent.next] = values;
+        recent.next = (recent.next + 1) % recent.tiles.length;
+        return values;
+    }
+
+    public int size() {
+        return n;
+    }
+    public double get(int i, int j) {
+        if (i > j) {
+            int k = i;
+            i = j;
+            j = k;
+        }
+        float[] tile = getRecentTile(tileNumber(i >>> tileShift, j >>> tileShift));
+        return tile[((i & (tileSize - 1)) << tileShift) + (j & (tileSize - 1))];
+    }
+    public synchronized void set(int i, int j, double sim) {
+        if (i > j) {
+            int k = i;
+            i = j;
+            j = k;
+        }
+        long tile = tileNumber(i >>> tileShift, j >>> tileShift);
+        int rowI = i & (tileSize - 1);
+        int colJ = j & (tileSize - 1);
+        boolean diagonal = (i >>> tileShift == j >>> tileShift);
+        FloatBuffer buffer = tileBuffer(tile);
+        buffer.put((rowI << tileShift) + colJ, (float) sim);
+        if (diagonal) buffer.put((colJ << tileShift) + rowI, (float) sim);
+        float[] cached = cache.peek(tile); // kept in step rather than evicted, for interleaved get/set
+        if (cached != null) {
+            cached[(rowI << tileShift) + colJ] = (float) sim;
+            if (diagonal) cached[(colJ << tileShift) + rowI] = (float) sim;
+        }
+        writeEpoch++;
+    }
+    public SimMatrix copy() {
+        TiledSimMatrix copy;
+        try {
+            copy = createTemp(n, tileSize, maxCachedTiles);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (int s = 0; s < segments.length; s++) {
+            ByteBuffer source = segment(s).duplicate();
+            source.clear();
+            ByteBuffer target = copy.segment(s).duplicate();
+            target.clear();
+            target.put(source);
+        }
+        return copy;
+    }
+
+    // the last few tiles one thread read, valid while epoch is the matrix's writeEpoch
+    private static class RecentTiles {
+        private long epoch = -1;
+        private long[] tiles;
+        private float[][] values;
+        private int next; // slot to replace next, round robin
+
+        RecentTiles(int slots) {
+            tiles = new long[slots];
+            values = new float[slots][];
+        }
+    }
+    // LRU cache of up to capacity tiles keyed by tile number without boxing: an open-addressing
+    // (linear probing) table from tile number to slot, and the slots in a doubly linked list from
+    // least to most recently used. The capacity can shrink, never below one tile
+    private static class TileCache {
+        private long[] keys; // tile numbers, -1 where empty
+        private int[] keySlots;
+        private int mask;
+        private long[] slotTiles;
+        private float[][] slotValues;
+        private int[] prev;
+        private int[] next;
+        private int head = -1; // least recently used slot
+        private int tail = -1;
+        private int size;
+        private int capacity;
+        private int[] freeSlots;
+        private int numFree;
+
+        TileCache(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(capacity, 2)) * 4; // at most half full
+            keys = new long[tableSize];
+            Arrays.fill(keys, -1);
+            keySlots = new int[tableSize];
+            mask = tableSize - 1;
+            slotTiles = new long[capacity];
+            slotValues = new float[capacity][];
+            prev = new int[capacity];
+            next = new int[capacity];
+            this.capacity = capacity;
+            freeSlots = new int[capacity];
+            for (int slot = 0; slot < capacity; slot++) freeSlots[slot] = capacity - 1 - slot;
+            numFree = capacity;
+        }
+        // the tile's values, now the most recently used, or null
+        float[] get(long tile) {
+            int t = find(tile);
+            if (t < 0) return null;
+            int slot = keySlots[t];
+            if (slot != tail) {
+                unlink(slot);
+                append(slot);
+            }
+            return slotValues[slot];
+        }
+        // the tile's values without touching the order, or null
+        float[] peek(long tile) {
+            int t = find(tile);
+            return (t < 0) ? null : slotValues[keySlots[t]];
+        }
+        // adds a tile that is not cached, evicting the least recently used one if full
+        void put(long tile, float[] values) {
+            if (size == capacity) evict();
+            int slot = freeSlots[--numFree];
+            size++;
+            slotTiles[slot] = tile;
+            slotValues[slot] = values;
+            int t = hash(tile);
+            while (keys[t] != -1) t = (t + 1) & mask;
+            keys[t] = tile;
+            keySlots[t] = slot;
+            append(slot);
+        }
+        // lowers the capacity, evicting the least recently used tiles beyond it
+        void setCapacity(int capacity) {
+            this.capacity = Math.max(1, capacity);
+            while (size > this.capacity) evict();
+        }
+        private void evict() {
+            int slot = head;
+            unlink(slot);
+            removeKey(slotTiles[slot]);
+            slotValues[slot] = null;
+            freeSlots[numFree++] = slot;
+            size--;
+        }
+        private int hash(long tile) {
+            return (int) ((tile * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+        private int find(long tile) {
+            for (int t = hash(tile); keys[t] != -1; t = (t + 1) & mask) {
+                if (keys[t] == tile) return t;
+            }
+            return -1;
+        }
+        // deletes a key, moving later keys of its probe run back so no lookup stops early
+        private void removeKey(long tile) {
+            int hole = find(tile);
+            keys[hole] = -1;
+            for (int t = (hole + 1) & mask; keys[t] != -1; t = (t + 1) & mask) {
+                int home = hash(keys[t]);
+                // keys whose home lies cyclically in (hole, t] stay put
+                boolean stays = (hole <= t) ? (hole < home && home <= t) : (hole < home || home <= t);
+                if (stays) continue;
+                keys[hole] = keys[t];
+                keySlots[hole] = keySlots[t];
+                keys[t] = -1;
+                hole = t;
+            }
+        }
+        private void unlink(int slot) {
+            if (prev[slot] == -1) head = next[slot];
+            else next[prev[slot]] = next[slot];
+            if (next[slot] == -1) tail = prev[slot];
+            else prev[next[slot]] = prev[slot];
+        }
+        private void append(int slot) {
+            prev[slot] = tail;
+            next[slot] = -1;
+            if (tail == -1) head = slot;
+            else next[tail] = slot;
+            tail = slot;
+        }
+    }
+
+    /* Getters */
+
+    public int getTileSize() {
+        return tileSize;
+    }
+    public int getNumTiles() {
+        return numTiles;
+    }
+    // hits of the shared cache; reads served from a thread's recent tiles are not counted
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+    // tiles the shared cache may hold, what the threads' recent tiles have left of maxCachedTiles
+    public synchronized int getCacheCapacity() {
+        return cache.capacity;
+    }
+
+    /* Cluster sums */
+
+    // similarity sum of every document in docs with all of docs (itself included), by position
+    // in docs: the documents are grouped by tile and each pair of groups reads its tile once
+    public double[] getRowSums(int[] docs) {
+        int m = docs.length;
+        // counting sort of the positions by tile row, keeping the given order within a tile
+        int[] groupStarts = new int[numTiles + 1];
+        for (int doc : docs) groupStarts[(doc >>> tileShift) + 1]++;
+        for (int t = 0; t < numTiles; t++) groupStarts[t + 1] += groupStarts[t];
+        int[] order = new int[m];
+        int[] fill = Arrays.copyOf(groupStarts, numTiles);
+        for (int p = 0; p < m; p++) order[fill[docs[p] >>> tileShift]++] = p;
+        double[] rowSums = new double[m];
+        int mask = tileSize - 1;
+        for (int a = 0; a < numTiles; a++) {
+            if (groupStarts[a] == groupStarts[a + 1]) continue;
+            for (int b = a; b < numTiles; b++) {
+                if (groupStarts[b] == groupStarts[b + 1]) continue;
+                float[] tile = getTile(a, b);
+                for (int x = groupStarts[a]; x < groupStarts[a + 1]; x++) {
+                    int p = order[x];
+                    int row = (docs[p] & mask) << tileShift;
+                    double rowSum = 0;
+                    int from = groupStarts[b];
+                    if (a == b) {
+                        rowSum += tile[row + (docs[p] & mask)]; // the self-pair, once
+                        from = x + 1;
+                    }
+                    for (int y = from; y < groupStarts[b + 1]; y++) {
+                        int q = order[y];
+                        double sim = tile[row + (docs[q] & mask)];
+                        rowSum += sim;
+                        rowSums[q] += sim;
+                    }
+                    rowSums[p] += rowSum;
+                }
+            }
+        }
+        return rowSums;
+    }
+    // sum of the similarities of all (ordered) pairs of documents in docs, self-pairs included
+    public double getSimSum(int[] docs) {
+        double simSum = 0;
+        for (double rowSum : getRowSums(docs)) simSum += rowSum;
+        return simSum;
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/* MatrixSplitEvaluator's row-sum scheme over a TiledSimMatrix: the row sums and the smaller
+ * half's pairwise pass walk the cluster tile by tile (TiledSimMatrix.getRowSums), so every pass
+ * reads each tile of the cluster once through the tile cache instead of once per member */
+public class TiledSplitEvaluator implements SplitEvaluator {
+
+    private TiledSimMatrix sims;
+    private int[] members;
+    private double[] rowSums; // by position in members
+    private double totalSum;
+    private LongAdder numLookups = new LongAdder();
+
+    public TiledSplitEvaluator(TiledSimMatrix sims, int[] members){
+        this.sims = sims;
+        this.members = members;
+        rowSums = sims.getRowSums(members);
+        for (double rowSum : rowSums) totalSum += rowSum;
+        numLookups.add((long) members.length * (members.length + 1) / 2);
+    }
+
+    public double getTotalSum() {
+        return totalSum;
+    }
+    public double evaluate(boolean[] inSecond, int sizeTwo, double[] simSums) {
+        boolean oneIsSmaller = members.length - sizeTwo <= sizeTwo;
+        int n = oneIsSmaller ? members.length - sizeTwo : sizeTwo;
+        int[] smaller = new int[n];
+        double rowSumTotal = 0;
+        for (int j = 0, k = 0; k < n; j++) {
+            if (inSecond[j] == oneIsSmaller) continue; // not in the smaller half
+            smaller[k++] = members[j];
+            rowSumTotal += rowSums[j];
+        }
+        double intraSum = sims.getSimSum(smaller);
+        numLookups.add((long) n * (n + 1) / 2);
+        double cutSum = rowSumTotal - intraSum;
+        double otherIntraSum = totalSum - intraSum - 2 * cutSum;
+        simSums[oneIsSmaller ? 0 : 1] = intraSum;
+        simSums[oneIsSmaller ? 1 : 0] = otherIntraSum;
+        return cutSum;
+    }
+    public long getNumLookups() {
+        return numLookups.sum();
+    }
+}
@@ -0,0 +1,73 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/* SimKernels on jdk.incubator.vector, at the platform's preferred width (AVX2: 4 doubles,
+ * AVX-512: 8). Similarities are computed and summed in double lanes; the float entries are
+ * loaded (gathered) or stored at half that width so lane counts match. gatherSum keeps one
+ * partial sum per lane and adds the lanes up at the end, so its rounding, unlike cosineRow's,
+ * depends on the width (see SimKernels).
+ *
+ * Only gatherSum is vectorized at every supported width: cosineRow is vectorized on AVX-512
+ * alone. It converts long lanes to double, which x86 only has in AVX-512, and the emulated
+ * conversion made it slower than scalar on AVX2, so below 512 bits it runs the scalar loop and
+ * a "vector" benchmark of cosineRow there measures scalar code (getName() says so). Only
+ * loaded through SimKernels.select(), which asks isSupported() first and falls back to
+ * ScalarSimKernels if this class can't be linked */
+public class VectorSimKernels implements SimKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = VectorSpecies.of(long.class, DOUBLES.vectorShape());
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final int LANES = DOUBLES.length();
+    private static final boolean VECTOR_CONVERSION = DOUBLES.vectorBitSize() >= 512;
+
+    private ScalarSimKernels scalar = new ScalarSimKernels();
+
+    // false if the preferred vectors hold fewer than 4 doubles, too narrow to pay off
+    public static boolean isSupported() {
+        return LANES >= 4;
+    }
+
+    public void cosineRow(long[] dots, double magnitudeI, double[] magnitudes, int from, int length, float[] out, int outOffset) {
+        if (!VECTOR_CONVERSION) {
+            scalar.cosineRow(dots, magnitudeI, magnitudes, from, length, out, outOffset);
+            return;
+        }
+        int t = 0;
+        for (int bound = length - LANES; t <= bound; t += LANES) {
+            LongVector dot = LongVector.fromArray(LONGS, dots, t);
+            VectorMask<Double> overlap = dot.compare(VectorOperators.NE, 0).cast(DOUBLES);
+            DoubleVector sim = ((DoubleVector) dot.convert(VectorOperators.L2D, 0)).div(magnitudeI).div(DoubleVector.fromArray(DOUBLES, magnitudes, from + t));
+            sim = DoubleVector.zero(DOUBLES).blend(sim, overlap);
+            ((FloatVector) sim.convertShape(VectorOperators.D2F, FLOATS, 0)).intoArray(out, outOffset + t);
+        }
+        for (; t < length; t++) {
+            out[outOffset + t] = (dots[t] == 0) ? 0 : (float) ((dots[t] / magnitudeI) / magnitudes[from + t]);
+        }
+    }
+    public double gatherSum(float[] values, int offset, int[] indices, int from, int to, double[] sums) {
+        DoubleVector partial = DoubleVector.zero(DOUBLES);
+        int k = from;
+        for (int bound = to - LANES; k <= bound; k += LANES) {
+            FloatVector gathered = FloatVector.fromArray(FLOATS, values, offset, indices, k);
+            DoubleVector terms = (DoubleVector) gathered.convertShape(VectorOperators.F2D, DOUBLES, 0);
+            partial = partial.add(terms);
+            if (sums != null) DoubleVector.fromArray(DOUBLES, sums, k).add(terms).intoArray(sums, k);
+        }
+        double sum = partial.reduceLanes(VectorOperators.ADD);
+        for (; k < to; k++) {
+            double value = values[offset + indices[k]];
+            sum += value;
+            if (sums != null) sums[k] += value;
+        }
+        return sum;
+    }
+    public String getName() {
+        return "vector (" + DOUBLES.vectorBitSize() + "-bit" + (VECTOR_CONVERSION ? "" : ", scalar cosineRow") + ")";
+    }
+}